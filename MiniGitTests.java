@@ -11,6 +11,8 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -1059,6 +1061,764 @@ public class MiniGitTests {
         assertFileEquals(NOTWUG, "wug.txt");
     }
 
+    @Test
+    public void test43_repack() {
+        miniGitCommand(new String[]{"init"}, "");
+        writeFile(WUG, "wug.txt");
+        miniGitCommand(new String[]{"add", "wug.txt"}, "");
+        miniGitCommand(new String[]{"commit", "version 1 of wug.txt"}, "");
+        writeFile(NOTWUG, "wug.txt");
+        miniGitCommand(new String[]{"add", "wug.txt"}, "");
+        miniGitCommand(new String[]{"commit", "version 2 of wug.txt"}, "");
+        miniGitCommand(new String[]{"repack"}, "");
+        assertEquals(List.of("pack"), Arrays.asList(new File(".minigit/blobs").list()));
+        assertEquals(List.of("pack"), Arrays.asList(new File(".minigit/commits").list()));
+        Matcher m = miniGitCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                version 2 of wug.txt
+                                
+                ===
+                ${COMMIT_HEAD}
+                version 1 of wug.txt
+                                
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        String uid1 = m.group(2);
+        miniGitCommand(new String[]{"checkout", uid1, "--", "wug.txt"}, "");
+        assertFileEquals(WUG, "wug.txt");
+        writeFile(WUG2, "h.txt");
+        miniGitCommand(new String[]{"add", "h.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Add h.txt"}, "");
+        miniGitCommand(new String[]{"repack"}, "");
+        deleteFile("h.txt");
+        miniGitCommand(new String[]{"checkout", "--", "h.txt"}, "");
+        assertFileEquals(WUG2, "h.txt");
+        miniGitCommand(new String[]{"find", "version 1 of wug.txt"}, uid1);
+    }
+
+    @Test
+    public void test44_logLimit() {
+        i_setup2();
+        miniGitCommandP(new String[]{"log", "-n", "1"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        miniGitCommand(new String[]{"log", "-n", "0"}, "");
+        miniGitCommandP(new String[]{"log", "--since", "2000-01-01"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"log", "-n"}, "Incorrect operands.");
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"log", "--since", "yesterday"}, "Incorrect operands.");
+    }
+
+    @Test
+    public void test45_messageIndex() {
+        i_setup2();
+        writeFile(WUG, "h.txt");
+        miniGitCommand(new String[]{"add", "h.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Two files"}, "");
+        Matcher m = miniGitCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+                                
+                ===
+                ${COMMIT_HEAD}
+                Two files
+                                
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        String[] found = {m.group(1), m.group(2)};
+        Arrays.sort(found);
+        miniGitCommand(new String[]{"find", "Two files"}, found[0] + "\n" + found[1]);
+        miniGitCommand(new String[]{"fsck"}, "");
+        deleteFile(".minigit/message-index");
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"fsck"}, """
+                message index is missing
+                Run reindex to rebuild the message index and commit metadata.""");
+        miniGitCommand(new String[]{"reindex"}, "");
+        miniGitCommand(new String[]{"fsck"}, "");
+        miniGitCommand(new String[]{"find", "initial commit"}, m.group(3));
+    }
+
+    @Test
+    public void test46_globalLogPages() {
+        i_setup2();
+        Matcher m = miniGitCommandP(new String[]{"global-log"}, """
+                ===
+                ${COMMIT_HEAD}
+                (.*)
+                                
+                ===
+                ${COMMIT_HEAD}
+                (.*)
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        String first = "===\n" + COMMIT_HEAD.replace("([a-f0-9]+)", m.group(1)) + "\n" + m.group(2);
+        String second = "===\n" + COMMIT_HEAD.replace("([a-f0-9]+)", m.group(3)) + "\n" + m.group(4);
+        miniGitCommandP(new String[]{"global-log", "--limit", "1"}, first);
+        miniGitCommandP(new String[]{"global-log", "--offset", "1"}, second);
+        miniGitCommandP(new String[]{"global-log", "--offset", "1", "--limit", "5"}, second);
+        miniGitCommand(new String[]{"global-log", "--offset", "2"}, "");
+        deleteFile(".minigit/commit-metadata");
+        miniGitCommandP(new String[]{"global-log", "--limit", "1"}, first);
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"global-log", "--limit", "-1"}, "Incorrect operands.");
+    }
+
+    @Test
+    public void test47_abbreviatedIds() {
+        i_prelude1();
+        writeFile(WUG, "wug.txt");
+        miniGitCommand(new String[]{"add", "wug.txt"}, "");
+        miniGitCommand(new String[]{"commit", "version 1 of wug.txt"}, "");
+        writeFile(NOTWUG, "wug.txt");
+        miniGitCommand(new String[]{"add", "wug.txt"}, "");
+        miniGitCommand(new String[]{"commit", "version 2 of wug.txt"}, "");
+        Matcher m = miniGitCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                version 2 of wug.txt
+                                
+                ===
+                ${COMMIT_HEAD}
+                version 1 of wug.txt
+                                
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        String uid1 = m.group(2);
+        miniGitCommand(new String[]{"checkout", uid1.substring(0, 8), "--", "wug.txt"}, "");
+        assertFileEquals(WUG, "wug.txt");
+        miniGitCommand(new String[]{"reset", uid1.substring(0, 8)}, "");
+        miniGitCommandP(new String[]{"log"}, """
+                ===
+                commit ${UID1}
+                ${DATE}
+                version 1 of wug.txt
+                                
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+                """
+                .replace("${UID1}", uid1).replace("${DATE}", DATE).replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"checkout", uid1.substring(1, 9), "--", "wug.txt"},
+                "No commit with that id exists.");
+    }
+
+    @Test
+    public void test48_statCache() throws IOException {
+        i_prelude1();
+        writeFile(SRC.resolve("a.txt"), "f.txt");
+        miniGitCommand(new String[]{"add", "f.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Add f"}, "");
+        i_blankStatus();
+        i_blankStatus();
+        // same size, same inode and the same modification time, so only the change time gives the edit away
+        FileTime mtime = Files.getLastModifiedTime(Path.of("f.txt"));
+        Files.write(Path.of("f.txt"), Files.readAllBytes(SRC.resolve("b.txt")));
+        Files.setLastModifiedTime(Path.of("f.txt"), mtime);
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                                
+                === Staged Files ===
+                                
+                === Removed Files ===
+                                
+                === Modifications Not Staged For Commit ===
+                f.txt (modified)
+                                
+                === Untracked Files ===
+                                
+                """);
+        writeFile(SRC.resolve("a.txt"), "f.txt");
+        i_blankStatus();
+    }
+
+    @Test
+    public void test49_binaryIndex() throws IOException {
+        i_prelude1();
+        writeFile(SRC.resolve("a.txt"), "f.txt");
+        miniGitCommand(new String[]{"add", "f.txt"}, "");
+        File index = new File(".minigit/index");
+        byte[] magic = Arrays.copyOf(Files.readAllBytes(index.toPath()), 4);
+        assertEquals("MGIX", new String(magic));
+
+        // an index serialized by earlier versions is still read, and is written in the new format from then on
+        minigit.StagingArea staged = minigit.StagingArea.read(index);
+        staged.getStagedAddition();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(index))) {
+            out.writeObject(staged);
+        }
+        writeFile(SRC.resolve("b.txt"), "g.txt");
+        miniGitCommand(new String[]{"add", "g.txt"}, "");
+        magic = Arrays.copyOf(Files.readAllBytes(index.toPath()), 4);
+        assertEquals("MGIX", new String(magic));
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                                
+                === Staged Files ===
+                f.txt
+                g.txt
+                                
+                === Removed Files ===
+                                
+                === Modifications Not Staged For Commit ===
+                                
+                === Untracked Files ===
+                                
+                """);
+    }
+
+    @Test
+    public void test50_migrateCommits() throws IOException {
+        i_prelude1();
+        // commits made while the repository is at format version 2 are still Java-serialized
+        Files.writeString(Path.of(".minigit", "version"), "2");
+        writeFile(WUG, "h.txt");
+        miniGitCommand(new String[]{"add", "h.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Add h"}, "");
+        String before = miniGitCommandP(new String[]{"log", "-n", "1"}, """
+                ===
+                ${COMMIT_HEAD}
+                Add h
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD)).group(1);
+        miniGitCommand(new String[]{"migrate"}, "");
+        assertEquals("3", Files.readString(Path.of(".minigit", "version")));
+        assertFalse(Files.exists(Path.of(".minigit", "commits-old")));
+        Matcher m = miniGitCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Add h
+                                
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+                """
+                .replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        assertNotEquals(before, m.group(1));
+        Files.delete(Path.of("h.txt"));
+        miniGitCommand(new String[]{"checkout", "--", "h.txt"}, "");
+        assertEquals(Files.readString(WUG), Files.readString(Path.of("h.txt")));
+        miniGitCommand(new String[]{"fsck"}, "");
+    }
+
+    @Test
+    public void test51_treeSharing() throws IOException {
+        minigit.ObjectDatabase trees = new minigit.ObjectDatabase(new File("trees"), true, true);
+        minigit.ObjectId x = minigit.ObjectId.fromHex("1111111111111111111111111111111111111111");
+        minigit.ObjectId y = minigit.ObjectId.fromHex("2222222222222222222222222222222222222222");
+        java.util.Map<String, minigit.ObjectId> files = new java.util.HashMap<>();
+        files.put("top.txt", x);
+        files.put("a/one.txt", x);
+        files.put("a/deep/two.txt", y);
+        files.put("b/three.txt", x);
+        minigit.ObjectId first = minigit.Tree.write(trees, files);
+        assertEquals(files, minigit.Tree.read(trees, first));
+
+        java.util.Map<String, minigit.ObjectId> changes = new java.util.HashMap<>();
+        changes.put("b/three.txt", y);
+        changes.put("a/deep/two.txt", null);
+        minigit.ObjectId second = minigit.Tree.update(trees, first, changes);
+        java.util.Map<String, minigit.ObjectId> before = minigit.Tree.decode(trees.read(first));
+        java.util.Map<String, minigit.ObjectId> after = minigit.Tree.decode(trees.read(second));
+        assertNotEquals(before.get("a/"), after.get("a/"));
+        assertNotEquals(before.get("b/"), after.get("b/"));
+        assertEquals(List.of("one.txt"), new ArrayList<>(minigit.Tree.decode(trees.read(after.get("a/"))).keySet()));
+        assertEquals(new java.util.HashSet<>(List.of("b/three.txt", "a/deep/two.txt")),
+                minigit.Tree.diff(trees, first, second).keySet());
+
+        // a directory left unchanged keeps its tree, and its files are not compared
+        changes.clear();
+        changes.put("b/three.txt", x);
+        minigit.ObjectId third = minigit.Tree.update(trees, second, changes);
+        assertEquals(after.get("a/"), minigit.Tree.decode(trees.read(third)).get("a/"));
+        assertEquals(java.util.Map.of("b/three.txt", x), minigit.Tree.diff(trees, second, third));
+    }
+
+    @Test
+    public void test52_subdirectories() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("src/deep"));
+        Files.createDirectories(Path.of("out"));
+        writeFile(WUG, "src/a.txt");
+        writeFile(NOTWUG, "src/deep/b.txt");
+        writeFile(WUG, "src.txt");
+        writeFile(WUG, "out/x.txt");
+        miniGitCommand(new String[]{"add", "src/a.txt"}, "");
+        miniGitCommand(new String[]{"add", "src/deep/b.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Two nested files"}, "");
+        writeFile(WUG, "src/deep/b.txt");
+        // files are listed in the order of their paths, so src.txt comes before the files under src/
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+                src/deep/b.txt (modified)
+
+                === Untracked Files ===
+                out/x.txt
+                src.txt
+
+                """);
+        miniGitCommand(new String[]{"checkout", "--", "src/deep/b.txt"}, "");
+        assertFileEquals(NOTWUG, "src/deep/b.txt");
+
+        // removing the only file of a directory removes the directory, and going back to a commit brings both back
+        Matcher logMatch = miniGitCommandP(new String[]{"log"}, """
+                ===
+                ${HEADER}
+                ${DATE}
+                Two nested files
+
+                ===
+                ${HEADER}
+                ${DATE}
+                initial commit
+
+                """
+                .replace("${HEADER}", "commit ([a-f0-9]+)")
+                .replace("${DATE}", DATE));
+        String uid = logMatch.group(1);
+        miniGitCommand(new String[]{"rm", "src/deep/b.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Remove b"}, "");
+        assertFalse(Files.exists(Path.of("src/deep")));
+        miniGitCommand(new String[]{"reset", uid}, "");
+        assertFileEquals(NOTWUG, "src/deep/b.txt");
+        assertFileEquals(WUG, "src/a.txt");
+    }
+
+    @Test
+    public void test53_ignoreFile() throws IOException {
+        i_prelude1();
+        Files.writeString(Path.of(".minigitignore"), """
+                # build output
+                build/
+                *.log
+                !keep.log
+                /top.tmp
+                """);
+        Files.createDirectories(Path.of("build/classes"));
+        Files.createDirectories(Path.of("sub"));
+        writeFile(WUG, "build/classes/x.txt");
+        writeFile(WUG, "a.log");
+        writeFile(WUG, "keep.log");
+        writeFile(WUG, "top.tmp");
+        writeFile(WUG, "sub/top.tmp");
+        writeFile(WUG, "sub/b.log");
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                .minigitignore
+                keep.log
+                sub/top.tmp
+
+                """);
+
+        minigit.IgnoreRules rules = new minigit.IgnoreRules(List.of("docs/**", "**/cache", "[ab]?.txt", "out/*.o"));
+        assertTrue(rules.isIgnored("docs/a/b.txt", false));
+        assertFalse(rules.isIgnored("src/docs/a.txt", false));
+        assertTrue(rules.isIgnored("cache", true));
+        assertTrue(rules.isIgnored("x/y/cache", false));
+        assertTrue(rules.isIgnored("d/b1.txt", false));
+        assertFalse(rules.isIgnored("c1.txt", false));
+        assertTrue(rules.isIgnored("out/main.o", false));
+        assertFalse(rules.isIgnored("out/lib/main.o", false));
+    }
+
+    @Test
+    public void test54_untrackedInTheWay() {
+        i_prelude1();
+        miniGitCommand(new String[]{"branch", "other"}, "");
+        miniGitCommand(new String[]{"checkout", "other"}, "");
+        writeFile(WUG, "g.txt");
+        miniGitCommand(new String[]{"add", "g.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Add g"}, "");
+        miniGitCommand(new String[]{"checkout", "main"}, "");
+        assertFalse(Files.exists(Path.of("g.txt")));
+
+        // an untracked file is only in the way if checking out would write over it, whatever its contents
+        writeFile(WUG, "h.txt");
+        miniGitCommand(new String[]{"checkout", "other"}, "");
+        miniGitCommand(new String[]{"checkout", "main"}, "");
+        writeFile(NOTWUG, "g.txt");
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"checkout", "other"},
+                "There is an untracked file in the way; delete it, or add and commit it first.");
+    }
+
+    @Test
+    public void test55_commitCache() {
+        i_setup2();
+        minigit.Repository repo = new minigit.Repository();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, repo.getLatestCommit().getBlobs().size());
+        }
+        assertEquals(1, repo.getCommitCache().misses());
+        assertEquals(2, repo.getCommitCache().hits());
+        assertEquals(1, repo.getTreeCache().misses());
+
+        // the least recently used object is evicted once the cache is full
+        minigit.ObjectCache<String> cache = new minigit.ObjectCache<>(2);
+        minigit.ObjectId a = minigit.ObjectId.fromHex("1111111111111111111111111111111111111111");
+        minigit.ObjectId b = minigit.ObjectId.fromHex("2222222222222222222222222222222222222222");
+        minigit.ObjectId c = minigit.ObjectId.fromHex("3333333333333333333333333333333333333333");
+        for (minigit.ObjectId id : List.of(a, b, a, c, a, b)) {
+            cache.get(id, minigit.ObjectId::toHex);
+        }
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void test56_batchAdd() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("sub"));
+        writeFile(WUG, "a.txt");
+        writeFile(WUG, "b.txt");
+        writeFile(NOTWUG, "sub/c.txt");
+        writeFile(NOTWUG, "sub/d.log");
+        writeFile(WUG, "e.dat");
+        miniGitCommand(new String[]{"add", "*.txt", "e.dat"}, "");
+        miniGitCommand(new String[]{"add", "sub"}, "");
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                a.txt
+                b.txt
+                e.dat
+                sub/c.txt
+                sub/d.log
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        miniGitCommand(new String[]{"commit", "Five files"}, "");
+
+        deleteFile("a.txt");
+        writeFile(NOTWUG, "b.txt");
+        writeFile(WUG, "f.txt");
+        miniGitCommand(new String[]{"add", "-A"}, "");
+        miniGitCommand(new String[]{"commit", "Batch"}, "");
+        i_blankStatus();
+        deleteFile("b.txt");
+        miniGitCommand(new String[]{"checkout", "--", "b.txt"}, "");
+        assertFileEquals(NOTWUG, "b.txt");
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"rm", "a.txt"}, "No reason to remove the file.");
+    }
+
+    @Test
+    public void test57_batchAddMissing() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+
+        exit.expectSystemExit();
+        miniGitCommand(new String[]{"add", "f.txt", "missing.txt"}, "File does not exist.");
+    }
+
+    @Test
+    public void test58_blobsWrittenOnce() throws IOException {
+        // adding a file used to write its contents over the blob of every file already staged, which happened
+        // whenever the whole staging area had been read, as it is from an index serialized by earlier versions
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        miniGitCommand(new String[]{"add", "f.txt"}, "");
+        File index = new File(".minigit/index");
+        minigit.StagingArea staged = minigit.StagingArea.read(index);
+        staged.getStagedAddition();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(index))) {
+            out.writeObject(staged);
+        }
+        writeFile(NOTWUG, "g.txt");
+        miniGitCommand(new String[]{"add", "g.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Two files"}, "");
+        deleteFile("f.txt");
+        deleteFile("g.txt");
+        miniGitCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        miniGitCommand(new String[]{"checkout", "--", "g.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+
+        minigit.ObjectDatabase blobs = new minigit.ObjectDatabase(new File("store"), true, true);
+        minigit.ObjectId id = blobs.put(Files.readAllBytes(WUG));
+        assertEquals(id, blobs.put(Files.readAllBytes(WUG)));
+        assertFalse(blobs.put(id, WUG.toFile()));
+        assertFalse(blobs.put(blobs.put(Files.readAllBytes(NOTWUG)), NOTWUG.toFile()));
+        assertArrayEquals(Files.readAllBytes(WUG), blobs.read(id));
+    }
+
+    @Test
+    public void test59_removedFilesSorted() {
+        // files staged for removal are listed in order of name, whatever order they were removed in
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        writeFile(WUG, "g.txt");
+        writeFile(WUG, "h.txt");
+        miniGitCommand(new String[]{"add", "f.txt", "g.txt", "h.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Three files"}, "");
+        miniGitCommand(new String[]{"rm", "h.txt"}, "");
+        miniGitCommand(new String[]{"rm", "f.txt"}, "");
+        miniGitCommand(new String[]{"rm", "g.txt"}, "");
+        writeFile(WUG, "g.txt");
+        miniGitCommand(new String[]{"add", "g.txt"}, "");
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+                f.txt
+                h.txt
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test60_atomicRefs() throws IOException {
+        // refs are replaced through hidden temporary files, which are renamed away and never listed as branches
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        miniGitCommand(new String[]{"add", "f.txt"}, "");
+        miniGitCommand(new String[]{"commit", "One file"}, "");
+        miniGitCommand(new String[]{"branch", "other"}, "");
+        String[] branches = new File(".minigit/branches").list();
+        Arrays.sort(branches);
+        assertArrayEquals(new String[]{"currBranch", "main", "other"}, branches);
+        String[] leftover = new File(".minigit").list((dir, name) -> name.endsWith(".tmp"));
+        assertEquals(0, leftover.length);
+
+        // replaced files keep the permissions a new file gets, or were given, rather than becoming owner-only
+        Path plain = Files.createFile(Path.of("plain.txt"));
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(Path.of(".minigit/HEAD")));
+        Path main = Path.of(".minigit/branches/main");
+        Files.setPosixFilePermissions(main, PosixFilePermissions.fromString("rw-r-----"));
+        writeFile(NOTWUG, "g.txt");
+        miniGitCommand(new String[]{"add", "g.txt"}, "");
+        miniGitCommand(new String[]{"commit", "Two files"}, "");
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"), Files.getPosixFilePermissions(main));
+        Files.delete(plain);
+
+        // one left behind by a crash is not a branch
+        Files.writeString(Path.of(".minigit/branches/.main-12345.tmp"), "");
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test61_concurrentProcesses() throws IOException, InterruptedException {
+        // commands run at once by separate processes take turns, so no process overwrites another's staged file
+        i_prelude1();
+        int n = 8;
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            writeFile(WUG, "f" + i + ".txt");
+        }
+        for (int i = 0; i < n; i++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "minigit.Main",
+                    "add", "f" + i + ".txt").redirectErrorStream(true).start());
+        }
+        for (Process p : processes) {
+            String output = new String(p.getInputStream().readAllBytes());
+            assertEquals(output, 0, p.waitFor());
+        }
+        StringBuilder staged = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            staged.append("f").append(i).append(".txt\n");
+        }
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                """ + staged + """
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+
+        // a lock file left by a process that crashed is not locked, so it does not get in the way
+        Files.writeString(Path.of(".minigit/lock"), "999999999\n");
+        miniGitCommand(new String[]{"commit", "Files added at once"}, "");
+        minigit.RepositoryLock lock = minigit.RepositoryLock.acquire(new File(".minigit"), 1000);
+        assertNotNull(lock);
+        assertEquals(ProcessHandle.current().pid(), minigit.RepositoryLock.holder(new File(".minigit")));
+        assertNull(minigit.RepositoryLock.acquire(new File(".minigit"), 50));
+        lock.close();
+        assertEquals(-1, minigit.RepositoryLock.holder(new File(".minigit")));
+    }
+
+    @Test
+    public void test62_checkoutUntrackedFileErr() {
+        // checking out a file the commit does not track fails without touching the working file
+        i_prelude1();
+        writeFile(WUG, "u.txt");
+        exit.expectSystemExitWithStatus(12);
+        miniGitCommand(new String[]{"checkout", "--", "u.txt"}, "File does not exist in that commit.");
+        assertFileEquals(WUG, "u.txt");
+    }
+
+    @Test
+    public void test63_repackDeltas() throws IOException {
+        // versions of a large file that differ in a few lines are packed as deltas, and each one is rebuilt exactly
+        i_prelude1();
+        java.util.Random random = new java.util.Random(63);
+        byte[] contents = new byte[100_000];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + random.nextInt(26));
+        }
+        List<byte[]> versions = new ArrayList<>();
+        List<String> uids = new ArrayList<>();
+        for (int v = 0; v < 6; v++) {
+            for (int edit = 0; edit < 5; edit++) {
+                contents[random.nextInt(contents.length)] = (byte) ('A' + v);
+            }
+            versions.add(contents.clone());
+            Files.write(Path.of("big.txt"), contents);
+            miniGitCommand(new String[]{"add", "big.txt"}, "");
+            miniGitCommand(new String[]{"commit", "version " + v}, "");
+            Matcher m = miniGitCommandP(new String[]{"log", "-n", "1"}, "===\n" + COMMIT_HEAD + "\nversion " + v);
+            uids.add(m.group(1));
+        }
+        miniGitCommand(new String[]{"repack"}, "");
+        File[] packs = new File(".minigit/blobs/pack").listFiles((dir, name) -> name.endsWith(".pack"));
+        assertEquals(1, packs.length);
+        assertTrue("pack of " + packs[0].length() + " bytes holds whole copies", packs[0].length() < contents.length);
+        for (int v = 0; v < versions.size(); v++) {
+            miniGitCommand(new String[]{"checkout", uids.get(v), "--", "big.txt"}, "");
+            assertArrayEquals(versions.get(v), Files.readAllBytes(Path.of("big.txt")));
+        }
+    }
+
+    @Test
+    public void test64_commitGraphLookup() {
+        // commits are found through the sorted lookup file as well as among the records appended after it
+        File file = new File("graph");
+        minigit.CommitGraph graph = new minigit.CommitGraph(file);
+        java.util.Map<minigit.ObjectId, minigit.Commit> commits = new java.util.HashMap<>();
+        List<minigit.ObjectId> ids = new ArrayList<>();
+        minigit.ObjectId tree = minigit.ObjectId.fromHex("ab".repeat(20));
+        for (int i = 0; i < 300; i++) {
+            minigit.ObjectId id = minigit.ObjectId.fromHex(String.format("%040x", (long) i * 0x9E3779B97F4A7C15L));
+            commits.put(id, new minigit.Commit("c" + i, i, i == 0 ? null : ids.get(i - 1), tree, t -> null));
+            assertEquals(i, graph.add(id, commits::get));
+            ids.add(id);
+        }
+        assertTrue(new File("graph-lookup").isFile());
+        graph = new minigit.CommitGraph(file);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, graph.find(ids.get(i)));
+            assertEquals(i - 1, graph.parent(i));
+        }
+        assertEquals(-1, graph.find(tree));
+    }
+
+    @Test
+    public void test65_dotBranch() {
+        // only writeAll's temporary files are hidden from listings, not every name starting with a dot
+        i_prelude1();
+        miniGitCommand(new String[]{"branch", ".hidden"}, "");
+        miniGitCommand(new String[]{"status"}, """
+                === Branches ===
+                .hidden
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        miniGitCommand(new String[]{"checkout", ".hidden"}, "");
+        exit.expectSystemExitWithStatus(13);
+        miniGitCommand(new String[]{"branch", ".hidden"}, "A branch with that name already exists.");
+    }
+
+    @Test
+    public void test66_looseObjectFiles() throws IOException {
+        // loose objects get the permissions of a new file, and repack deletes temporary files interrupted writes left
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        miniGitCommand(new String[]{"add", "f.txt"}, "");
+        Path plain = Files.createFile(Path.of("plain.txt"));
+        File[] shards = new File(".minigit/blobs").listFiles((dir, name) -> name.length() == 2);
+        assertEquals(1, shards.length);
+        File blob = shards[0].listFiles()[0];
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(blob.toPath()));
+        Files.delete(plain);
+
+        File leftover = new File(shards[0], "." + blob.getName() + "-12345.tmp");
+        Files.writeString(leftover.toPath(), "partial");
+        miniGitCommand(new String[]{"commit", "One file"}, "");
+        miniGitCommand(new String[]{"repack"}, "");
+        assertFalse(leftover.exists());
+    }
+
     @Test
     public void test41_noCommandErr() {
         i_prelude1();
@@ -1,39 +1,137 @@
 package minigit;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Function;
 
+/** A commit.
+ *
+ *  Repositories of format version 3 and later store commits in a small text encoding, which names each of its fields
+ *  so that it can be read without knowing the class that wrote it:
+ *      tree <hash value of the tree object>
+ *      parent <hash value of the parent commit>      (left out for the initial commit)
+ *      time <milliseconds since the epoch>
+ *
+ *      <UTF-8 message>
+ *  The files the commit tracks live in the tree object, so they are only read when they are needed. Older
+ *  repositories store Java-serialized commits that hold their files themselves, and keep doing so until they are
+ *  migrated.
+ */
 public class Commit implements Serializable {
-    private SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
+    /** Pinned so that repositories written by earlier versions of MiniGit stay readable. */
+    private static final long serialVersionUID = 286627195965817450L;
+    /** The pattern that commit times are shown in. */
+    static final String DATE_FORMAT = "EEE MMM dd HH:mm:ss yyyy Z";
+    /** Only set while the commit is being serialized, since readers of serialized commits expect one. */
+    private SimpleDateFormat format;
     private String message;
     private Date timestamp;
-    private String parent;
-    private HashMap<String, String> blobs;
+    private ObjectId parent;
+    private HashMap<String, ObjectId> blobs;
+    /** The id of the commit's tree object, or null if it has not been computed or read yet */
+    private transient ObjectId tree;
+    /** Reads the tree object of a decoded commit the first time its files are needed */
+    private transient Function<ObjectId, HashMap<String, ObjectId>> treeReader;
 
-    /** Constructor the Commit class, creates a new commit with given values
+    /** Constructor the Commit class, creates a new commit with given values. Such a commit holds its files itself, as
+     *  commits in repositories older than format version 3 do.
      *
      * @param message The commit message
      * @param parent The parent commit
      * @param blobs The files that the commit tracks
      */
-    public Commit(String message, String parent, HashMap<String, String> blobs) {
+    public Commit(String message, ObjectId parent, HashMap<String, ObjectId> blobs) {
         this.message = message;
+        this.timestamp = new Date(parent == null ? 0 : System.currentTimeMillis());
         this.parent = parent;
-        if (parent == null) {
-            this.timestamp = new Date(0);
-        } else {
-            this.timestamp = new Date();
-        }
         this.blobs = blobs;
+    }
 
+    /** Constructor for the Commit class, for a commit whose files are in a tree object that has already been written
+     *
+     * @param message The commit message
+     * @param time The time the commit was made, in milliseconds since the epoch
+     * @param parent The parent commit
+     * @param tree The id of the tree object holding the files that the commit tracks
+     * @param treeReader Reads the files of a tree object, given its id, once they are needed
+     */
+    public Commit(String message, long time, ObjectId parent, ObjectId tree,
+                  Function<ObjectId, HashMap<String, ObjectId>> treeReader) {
+        this.message = message;
+        this.timestamp = new Date(time);
+        this.parent = parent;
+        this.tree = tree;
+        this.treeReader = treeReader;
     }
 
-    /** Gets the files that the current commit tracks
+    /** Encodes the commit in the text encoding
+     *
+     * @return The contents of the commit object
+     */
+    public byte[] encode() {
+        StringBuilder out = new StringBuilder();
+        out.append("tree ").append(getTreeId().toHex()).append('\n');
+        if (parent != null) {
+            out.append("parent ").append(parent.toHex()).append('\n');
+        }
+        out.append("time ").append(getTime()).append('\n');
+        out.append('\n').append(message);
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Decodes a commit object in either the text encoding or Java serialization
+     *
+     * @param contents The contents of the commit object
+     * @param treeReader Reads the files of a tree object, given its id, once they are needed
+     * @return The commit
+     */
+    public static Commit decode(byte[] contents, Function<ObjectId, HashMap<String, ObjectId>> treeReader) {
+        if (contents.length >= 2 && contents[0] == (byte) 0xac && contents[1] == (byte) 0xed) { // serialized
+            return Utils.deserialize(contents, Commit.class);
+        }
+        String text = new String(contents, StandardCharsets.UTF_8);
+        ObjectId tree = null;
+        ObjectId parent = null;
+        long time = -1;
+        int start = 0;
+        while (true) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("commit object has no message");
+            }
+            if (end == start) {
+                break;
+            }
+            String line = text.substring(start, end);
+            int space = line.indexOf(' ');
+            String value = line.substring(space + 1);
+            switch (space < 0 ? line : line.substring(0, space)) {
+                case "tree" -> tree = ObjectId.fromHex(value);
+                case "parent" -> parent = ObjectId.fromHex(value);
+                case "time" -> time = Long.parseLong(value);
+                default -> { } // fields added by later versions are skipped
+            }
+            start = end + 1;
+        }
+        if (tree == null || time < 0) {
+            throw new IllegalArgumentException("commit object is missing its tree or time");
+        }
+        return new Commit(text.substring(start + 1), time, parent, tree, treeReader);
+    }
+
+    /** Gets the files that the current commit tracks, reading its tree object the first time if it was decoded
      *
      * @return Commit's tracked files
      */
-    public HashMap<String, String> getBlobs() {
+    public HashMap<String, ObjectId> getBlobs() {
+        if (blobs == null) {
+            blobs = treeReader.apply(tree);
+        }
         return blobs;
     }
 
@@ -50,15 +148,65 @@ public class Commit implements Serializable {
      * @return The commit's timestamp
      */
     public String getTimestamp() {
-        return format.format(this.timestamp);
+        return new SimpleDateFormat(DATE_FORMAT).format(this.timestamp);
+    }
+
+    /** Gets the time the current commit was made
+     *
+     * @return The commit's timestamp, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return this.timestamp.getTime();
+    }
+
+    /** Gets the id of the tree of files the current commit tracks. Two commits that track the same versions of the
+     *  same files have the same tree id. For commits that hold their files themselves, the id is computed by encoding
+     *  every path, including those in subdirectories, as the entries of a single tree object. That object is never
+     *  stored, and for a commit with files in subdirectories its id differs from that of the nested trees Tree.write
+     *  would store for the same files, so it only identifies the files for comparison between such commits.
+     *
+     * @return The SHA-1 hash value of the commit's tree object
+     */
+    public ObjectId getTreeId() {
+        if (tree == null) {
+            tree = ObjectId.fromHex(Utils.sha1(Tree.encode(blobs)));
+        }
+        return tree;
     }
 
     /** Gets the current commit's parent commit
      *
      * @return The commit's parent commit
      */
-    public String getParent() {
+    public ObjectId getParent() {
         return this.parent;
     }
 
-}
\ No newline at end of file
+    /** Serializes the commit for repositories older than format version 3, along with the date format that their
+     *  readers expect every commit to hold.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getBlobs();
+        format = new SimpleDateFormat(DATE_FORMAT);
+        out.defaultWriteObject();
+        format = null;
+    }
+
+    /** Reads a serialized commit. Commits written before ObjectId existed hold their parent and blob hash values as
+     *  Strings, so those are converted as they are read.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        timestamp = (Date) fields.get("timestamp", null);
+        parent = ObjectId.fromStored(fields.get("parent", null));
+        HashMap<?, ?> stored = (HashMap<?, ?>) fields.get("blobs", null);
+        if (stored != null) {
+            blobs = new HashMap<>();
+            for (Map.Entry<?, ?> blob : stored.entrySet()) {
+                blobs.put((String) blob.getKey(), ObjectId.fromStored(blob.getValue()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/** The commit-graph file, which records the shape of history so that it can be walked without reading commits.
+ *
+ *  The file is a header followed by one fixed-width record per commit:
+ *      "MCGR" | version | record count
+ *      (commit id | position of parent or -1 | generation | timestamp | tree id)...
+ *  Records are only ever appended, and a commit is always appended after its parent, so every parent has a smaller
+ *  position than its children. The generation of a root commit is 1 and every other commit is one more than its
+ *  parent, so a commit can only be an ancestor of commits with a larger generation. The file is memory-mapped for
+ *  reading, so looking up a parent is a single read at a computed offset.
+ *
+ *  Commits are found by id through a lookup file next to it, named like it with -lookup added, which lists the ids of
+ *  the first records in ascending order with their positions, after a fan-out table like that of a pack's .idx file:
+ *      "MCGL" | version | number of records covered | fan-out table of 256 counts | (commit id | position)...
+ *  Records appended since the lookup file was written are searched one by one, and the lookup file is written again
+ *  once they make up more than an eighth of the graph, so finding a commit takes a binary search and a scan of a
+ *  short tail however long the history is, and the lookup file is only rewritten a logarithmic number of times.
+ */
+public class CommitGraph {
+    static final String MAGIC = "MCGR";
+    static final int VERSION = 1;
+    static final int HEADER = 12;
+    static final int RECORD = ObjectId.BYTES + 4 + 4 + 8 + ObjectId.BYTES;
+    static final String LOOKUP_MAGIC = "MCGL";
+    static final int LOOKUP_HEADER = 12 + 256 * 4;
+    static final int LOOKUP_ENTRY = ObjectId.BYTES + 4;
+    /** The most records that are searched one by one before the lookup file is written again, however small the
+     *  graph */
+    static final int MIN_TAIL = 64;
+
+    private final File file;
+    private final File lookupFile;
+    private MappedByteBuffer map;
+    private int count;
+    private MappedByteBuffer lookup;
+    /** The number of records, from the first, that the lookup file covers */
+    private int indexed;
+
+    /** Opens the commit-graph file, which does not have to exist yet
+     *
+     * @param file The commit-graph file
+     */
+    public CommitGraph(File file) {
+        this.file = file;
+        this.lookupFile = new File(file.getPath() + "-lookup");
+        if (!file.exists()) { // a lookup file left from a graph that was deleted would point at the wrong records
+            lookupFile.delete();
+        }
+        remap();
+        remapLookup();
+    }
+
+    /** Gets the number of commits in the graph
+     *
+     * @return The number of commits
+     */
+    public int size() {
+        return count;
+    }
+
+    /** Finds the position of a commit in the graph, by a binary search of the lookup file and then a search of the
+     *  records appended since it was written
+     *
+     * @param id The hash value of the commit
+     * @return The position of the commit, or -1 if it is not in the graph
+     */
+    public int find(ObjectId id) {
+        if (indexed > 0) {
+            int first = id.firstByte();
+            int lo = first == 0 ? 0 : lookup.getInt(12 + (first - 1) * 4);
+            int hi = lookup.getInt(12 + first * 4) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int entry = LOOKUP_HEADER + mid * LOOKUP_ENTRY;
+                int cmp = new ObjectId(lookup.getLong(entry), lookup.getLong(entry + 8), lookup.getInt(entry + 16))
+                        .compareTo(id);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return lookup.getInt(entry + ObjectId.BYTES);
+                }
+            }
+        }
+        for (int i = count - 1; i >= indexed; i--) {
+            if (id(i).equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Gets the hash value of the commit at a position
+     *
+     * @param position The position of the commit
+     * @return The hash value of the commit
+     */
+    public ObjectId id(int position) {
+        return readId(offset(position));
+    }
+
+    /** Gets the position of the parent of the commit at a position
+     *
+     * @param position The position of the commit
+     * @return The position of its parent, or -1 if it is the initial commit
+     */
+    public int parent(int position) {
+        return map.getInt(offset(position) + ObjectId.BYTES);
+    }
+
+    /** Gets the generation number of the commit at a position
+     *
+     * @param position The position of the commit
+     * @return The number of commits from the initial commit to this one, counting both
+     */
+    public int generation(int position) {
+        return map.getInt(offset(position) + ObjectId.BYTES + 4);
+    }
+
+    /** Gets the time the commit at a position was made
+     *
+     * @param position The position of the commit
+     * @return The time, in milliseconds since the epoch
+     */
+    public long timestamp(int position) {
+        return map.getLong(offset(position) + ObjectId.BYTES + 8);
+    }
+
+    /** Gets the id of the tree of files tracked by the commit at a position
+     *
+     * @param position The position of the commit
+     * @return The tree id of the commit
+     */
+    public ObjectId tree(int position) {
+        return readId(offset(position) + ObjectId.BYTES + 16);
+    }
+
+    /** Checks if one commit is an ancestor of another, walking parents only while generation numbers allow it
+     *
+     * @param ancestor The position of the possible ancestor
+     * @param descendant The position of the possible descendant
+     * @return whether ANCESTOR is DESCENDANT or one of its ancestors
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        int stop = generation(ancestor);
+        int i = descendant;
+        while (i >= 0 && generation(i) > stop) {
+            i = parent(i);
+        }
+        return i == ancestor;
+    }
+
+    /** Finds the position of a commit, first appending it and any of its ancestors that are missing from the graph.
+     *  This brings the graph up to date for repositories made before it existed.
+     *
+     * @param id The hash value of the commit
+     * @param reader Reads commits that have to be added from the commit store
+     * @return The position of the commit
+     */
+    public int add(ObjectId id, Function<ObjectId, Commit> reader) {
+        int position = find(id);
+        if (position >= 0) {
+            return position;
+        }
+        ArrayDeque<ObjectId> missing = new ArrayDeque<>();
+        ArrayDeque<Commit> missingCommits = new ArrayDeque<>();
+        int parent = -1;
+        for (ObjectId next = id; next != null; ) {
+            Commit c = reader.apply(next);
+            missing.push(next);
+            missingCommits.push(c);
+            next = c.getParent();
+            if (next != null && (parent = find(next)) >= 0) {
+                break;
+            }
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(missing.size() * RECORD);
+        int newCount = count;
+        int generation = parent < 0 ? 0 : generation(parent);
+        while (!missing.isEmpty()) {
+            ObjectId next = missing.pop();
+            Commit c = missingCommits.pop();
+            generation++;
+            records.put(next.toBytes());
+            records.putInt(parent);
+            records.putInt(generation);
+            records.putLong(c.getTime());
+            records.put(c.getTreeId().toBytes());
+            parent = newCount++;
+        }
+        records.flip();
+        append(records, newCount);
+        return newCount - 1;
+    }
+
+    /** Appends records to the end of the file, then updates the record count in the header. Readers only trust the
+     *  count, so records written by an interrupted append are ignored and later overwritten.
+     */
+    private void append(ByteBuffer records, int newCount) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.put(MAGIC.getBytes()).putInt(VERSION).putInt(0).flip();
+                channel.write(header, 0);
+            }
+            channel.write(records, HEADER + (long) count * RECORD);
+            channel.write(ByteBuffer.allocate(4).putInt(newCount).flip(), 8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        remap();
+        if (count - indexed > Math.max(MIN_TAIL, indexed / 8)) {
+            writeLookup();
+        }
+    }
+
+    /** Writes the lookup file again, covering every record of the graph */
+    private void writeLookup() {
+        Integer[] positions = new Integer[count];
+        ObjectId[] ids = new ObjectId[count];
+        int[] fanout = new int[256];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+            ids[i] = id(i);
+            fanout[ids[i].firstByte()]++;
+        }
+        Arrays.sort(positions, (a, b) -> ids[a].compareTo(ids[b]));
+        ByteBuffer out = ByteBuffer.allocate(LOOKUP_HEADER + count * LOOKUP_ENTRY);
+        out.put(LOOKUP_MAGIC.getBytes()).putInt(VERSION).putInt(count);
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            out.putInt(total);
+        }
+        for (int position : positions) {
+            out.put(ids[position].toBytes()).putInt(position);
+        }
+        Utils.writeContents(lookupFile, out.array());
+        remapLookup();
+    }
+
+    /** Maps the file into memory again, after it is created or grows */
+    private void remap() {
+        if (!file.isFile()) {
+            count = 0;
+            map = null;
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[4];
+        map.get(0, magic);
+        if (!new String(magic).equals(MAGIC) || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a commit-graph file: " + file);
+        }
+        count = map.getInt(8);
+    }
+
+    /** Maps the lookup file into memory again, after it is written */
+    private void remapLookup() {
+        lookup = null;
+        indexed = 0;
+        if (lookupFile.isFile()) {
+            try (FileChannel channel = FileChannel.open(lookupFile.toPath(), StandardOpenOption.READ)) {
+                lookup = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            byte[] magic = new byte[4];
+            lookup.get(0, magic);
+            int covered = lookup.capacity() >= LOOKUP_HEADER ? lookup.getInt(8) : -1;
+            // a lookup file covering records the graph no longer counts, or of the wrong size, is not used
+            if (new String(magic).equals(LOOKUP_MAGIC) && lookup.getInt(4) == VERSION && covered >= 0
+                    && covered <= count && lookup.capacity() == LOOKUP_HEADER + (long) covered * LOOKUP_ENTRY) {
+                indexed = covered;
+            }
+        }
+    }
+
+    /** Returns the offset of the record at POSITION. */
+    private static int offset(int position) {
+        return HEADER + position * RECORD;
+    }
+
+    /** Returns the hash value stored at OFFSET of the file. */
+    private ObjectId readId(int offset) {
+        return new ObjectId(map.getLong(offset), map.getLong(offset + 8), map.getInt(offset + 16));
+    }
+}
@@ -0,0 +1,202 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The time and message of every commit, so that global-log can show commits without deserializing them.
+ *
+ *  The file is a header followed by one record per commit, in the order the commits were made:
+ *      "MCMD" | version | record count | offset of the end of the last record
+ *      (commit id | timestamp | length of message | UTF-8 message)...
+ *  Records are only ever appended, and readers only trust the count and end offset in the header, like the commit
+ *  graph. The file is memory-mapped for reading, and the first lookup builds a table from commit ids to the offsets of
+ *  their records.
+ */
+public class CommitMetadata {
+    static final String MAGIC = "MCMD";
+    static final int VERSION = 1;
+    static final int HEADER = 20;
+
+    private final File file;
+    private MappedByteBuffer map;
+    private Map<ObjectId, Integer> offsets;
+
+    /** Constructor for the CommitMetadata class
+     *
+     * @param file The metadata file, which does not have to exist yet
+     */
+    public CommitMetadata(File file) {
+        this.file = file;
+    }
+
+    /** Checks if the metadata file has been built. Repositories made before it existed have to be reindexed first.
+     *
+     * @return whether the metadata file exists
+     */
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /** Appends the metadata of a new commit
+     *
+     * @param id The hash value of the commit
+     * @param com The commit
+     */
+    public void add(ObjectId id, Commit com) {
+        ByteBuffer record = record(id, com.getTime(), com.getMessage());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            channel.read(header, 8);
+            int count = header.flip().getInt();
+            long end = header.getLong();
+            int length = record.remaining();
+            channel.write(record, end);
+            channel.write(header.clear().putInt(count + 1).putLong(end + length).flip(), 8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        map = null;
+        offsets = null;
+    }
+
+    /** Writes the metadata file again from scratch, replacing the old one once the new one is complete
+     *
+     * @param ids The hash values of the commits
+     * @param times The times the commits were made, in milliseconds since the epoch
+     * @param messages The messages of the commits
+     */
+    public void rebuild(List<ObjectId> ids, List<Long> times, List<String> messages) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER);
+            for (int i = 0; i < ids.size(); i++) {
+                channel.write(record(ids.get(i), times.get(i), messages.get(i)));
+            }
+            channel.write(ByteBuffer.allocate(HEADER).put(MAGIC.getBytes()).putInt(VERSION).putInt(ids.size())
+                    .putLong(channel.position()).flip(), 0);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        map = null;
+        offsets = null;
+    }
+
+    /** Finds the record of a commit. This is safe to call from several threads at once.
+     *
+     * @param id The hash value of the commit
+     * @return The offset of the commit's record, or -1 if it has none
+     */
+    public int find(ObjectId id) {
+        return records().getOrDefault(id, -1);
+    }
+
+    /** Gets the time a commit was made
+     *
+     * @param record The offset of the commit's record, from find
+     * @return The time, in milliseconds since the epoch
+     */
+    public long timestamp(int record) {
+        return map.getLong(record + ObjectId.BYTES);
+    }
+
+    /** Gets the message of a commit
+     *
+     * @param record The offset of the commit's record, from find
+     * @return The commit's message
+     */
+    public String message(int record) {
+        byte[] message = new byte[map.getInt(record + ObjectId.BYTES + 8)];
+        map.get(record + ObjectId.BYTES + 12, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /** Compares the metadata file against the commits it should hold
+     *
+     * @param ids The hash values of every commit in the repository
+     * @param times The times the commits were made
+     * @param messages The messages of the commits
+     * @return A description of every inconsistency found, which is empty if the file is correct
+     */
+    public List<String> check(List<ObjectId> ids, List<Long> times, List<String> messages) {
+        List<String> problems = new ArrayList<>();
+        Map<ObjectId, Integer> unchecked;
+        try {
+            unchecked = new HashMap<>(records());
+        } catch (IllegalArgumentException e) {
+            problems.add("commit metadata cannot be read: " + e.getMessage());
+            return problems;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            Integer record = unchecked.remove(ids.get(i));
+            if (record == null) {
+                problems.add("commit metadata is missing commit " + ids.get(i));
+            } else if (timestamp(record) != times.get(i) || !message(record).equals(messages.get(i))) {
+                problems.add("commit metadata is wrong for commit " + ids.get(i));
+            }
+        }
+        for (ObjectId id : unchecked.keySet()) {
+            problems.add("commit metadata lists unknown commit " + id);
+        }
+        return problems;
+    }
+
+    /** Returns the offset of the record of every commit, mapping the file and reading them the first time. */
+    private synchronized Map<ObjectId, Integer> records() {
+        if (offsets == null) {
+            load();
+        }
+        return offsets;
+    }
+
+    /** Maps the file into memory and reads the offset of every record. */
+    private void load() {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[4];
+        if (map.capacity() >= HEADER) {
+            map.get(0, magic);
+        }
+        if (!new String(magic).equals(MAGIC) || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a commit metadata file: " + file);
+        }
+        int count = map.getInt(8);
+        if (map.getLong(12) > map.capacity()) {
+            throw new IllegalArgumentException("commit metadata file is truncated: " + file);
+        }
+        Map<ObjectId, Integer> found = new HashMap<>(2 * count);
+        int record = HEADER;
+        for (int i = 0; i < count; i++) {
+            found.put(new ObjectId(map.getLong(record), map.getLong(record + 8), map.getInt(record + 16)), record);
+            record += ObjectId.BYTES + 12 + map.getInt(record + ObjectId.BYTES + 8);
+        }
+        offsets = found;
+    }
+
+    /** Returns the record of the commit ID made at TIME with MESSAGE, ready to be written. */
+    private static ByteBuffer record(ObjectId id, long time, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(ObjectId.BYTES + 12 + text.length)
+                .put(id.toBytes()).putLong(time).putInt(text.length).put(text).flip();
+    }
+}
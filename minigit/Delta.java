@@ -0,0 +1,129 @@
+package minigit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of an object.
+ *
+ *  A delta describes a target as a sequence of instructions against a base:
+ *      base length | target length | instruction...
+ *  where each instruction either copies a range of the base (COPY | offset | length) or inserts new bytes
+ *  (INSERT | length | bytes). Every number is written as a variable length integer of 7 bits per byte.
+ */
+class Delta {
+    static final int COPY = 1;
+    static final int INSERT = 0;
+    /** The length of the blocks of the base that are indexed when searching for matches. */
+    static final int BLOCK = 16;
+
+    /** Creates a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeNumber(out, base.length);
+        writeNumber(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(hash(target, i));
+            if (match == null || !Arrays.equals(base, match, match + BLOCK, target, i, i + BLOCK)) {
+                i++;
+                continue;
+            }
+            int s = match;
+            int t = i;
+            while (s > 0 && t > pending && base[s - 1] == target[t - 1]) { // grow the match backwards
+                s--;
+                t--;
+            }
+            int length = i - t + BLOCK;
+            while (s + length < base.length && t + length < target.length
+                    && base[s + length] == target[t + length]) { // and forwards
+                length++;
+            }
+            writeInsert(out, target, pending, t);
+            out.write(COPY);
+            writeNumber(out, s);
+            writeNumber(out, length);
+            i = t + length;
+            pending = i;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Rebuilds the target of DELTA from its BASE. Throws IllegalArgumentException if DELTA was not made against
+     *  BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readNumber(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] target = new byte[(int) readNumber(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readNumber(delta, pos);
+                int length = (int) readNumber(delta, pos);
+                System.arraycopy(base, offset, target, t, length);
+                t += length;
+            } else {
+                int length = (int) readNumber(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, length);
+                pos[0] += length;
+                t += length;
+            }
+        }
+        if (t != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /** Writes an instruction that inserts the bytes of SRC from START to END, if there are any. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] src, int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            writeNumber(out, end - start);
+            out.write(src, start, end - start);
+        }
+    }
+
+    /** Returns the hash of the block of BLOCK bytes of DATA that starts at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    /** Writes N to OUT as a variable length integer. */
+    static void writeNumber(ByteArrayOutputStream out, long n) {
+        while (n >= 0x80) {
+            out.write((int) (n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+
+    /** Reads a variable length integer from DATA at POS[0], moving POS[0] past it. */
+    static long readNumber(byte[] data, int[] pos) {
+        long n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            n |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return n;
+    }
+}
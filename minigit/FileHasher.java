@@ -0,0 +1,61 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Computes the SHA-1 hash values of files by streaming them through a reusable direct buffer, so that hashing a file
+ *  takes the same memory whatever its size. A FileHasher reuses one MessageDigest for every hash it computes, so it
+ *  is not thread safe; threads that hash in parallel each use their own FileHasher.
+ */
+public class FileHasher {
+    /** The size of the buffer that files are read through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final MessageDigest md;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** Constructor for the FileHasher class
+     */
+    public FileHasher() {
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Gets the SHA-1 hash value of a file's contents, the same value that Utils.sha1 gives for them
+     *
+     * @param file The file to hash
+     * @return The hash value of the file
+     */
+    public ObjectId hash(File file) {
+        md.reset();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return ObjectId.fromBytes(md.digest(), 0);
+    }
+
+    /** Gets the SHA-1 hash value of some contents held in memory
+     *
+     * @param contents The contents to hash
+     * @return The hash value of the contents
+     */
+    public ObjectId hash(byte[] contents) {
+        md.reset();
+        return ObjectId.fromBytes(md.digest(contents), 0);
+    }
+}
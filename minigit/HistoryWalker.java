@@ -0,0 +1,46 @@
+package minigit;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** Walks the history of a branch from its head commit back to the initial commit, one commit at a time, through the
+ *  commit graph. The walk can be cut off after a number of commits or at the first commit older than a given time,
+ *  and it stops without reading anything past the cutoff.
+ */
+public class HistoryWalker implements Iterator<ObjectId> {
+    private final CommitGraph graph;
+    private final int limit;
+    private final long since;
+    private int position;
+    private int walked;
+
+    /** Constructor for the HistoryWalker class
+     *
+     * @param graph The commit graph to walk
+     * @param start The position of the commit to start from
+     * @param limit The most commits to walk
+     * @param since The time, in milliseconds since the epoch, before which the walk stops
+     */
+    public HistoryWalker(CommitGraph graph, int start, int limit, long since) {
+        this.graph = graph;
+        this.position = start;
+        this.limit = limit;
+        this.since = since;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position >= 0 && walked < limit && graph.timestamp(position) >= since;
+    }
+
+    @Override
+    public ObjectId next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ObjectId id = graph.id(position);
+        position = graph.parent(position);
+        walked++;
+        return id;
+    }
+}
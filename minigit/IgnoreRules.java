@@ -0,0 +1,170 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** The rules that say which working files MiniGit leaves alone, read from the .minigitignore file.
+ *
+ *  Each line of the file is a glob pattern, in the syntax of .gitignore files:
+ *      * matches any run of characters but a slash, ? matches one, and [abc] or [!abc] match one from a set
+ *      ** matches any run of characters, slashes included, so a/** is everything under the directory a
+ *      a pattern with a slash before its end is matched against the whole path, and one without against the name
+ *      a pattern ending with a slash only matches directories, and a pattern starting with ! takes files back out
+ *  Blank lines and lines starting with # are skipped. When several patterns match a path, the last one decides.
+ *
+ *  Every pattern is compiled once, when the rules are read: a pattern without wildcards is compared as a plain string
+ *  and any other becomes a regular expression. An ignored directory is never listed, so nothing under it costs
+ *  anything, and a file in it cannot be taken back out by a later pattern.
+ */
+public class IgnoreRules {
+    /** The name of the file the rules are read from, at the top of the working directory */
+    static final String FILENAME = ".minigitignore";
+    /** The patterns in effect before those of the file, which leave out the files MiniGit itself is run alongside */
+    static final String DEFAULTS = """
+            .DS_Store
+            /MiniGitTests.java
+            /proj1.iml
+            /readme.md
+            """;
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** A compiled pattern. Exactly one of LITERAL and REGEX is set. */
+    private record Rule(String literal, Pattern regex, boolean anchored, boolean directoryOnly, boolean negated) {
+        /** Returns whether this pattern matches the file or directory at PATH, whose name starts at NAME. */
+        boolean matches(String path, int name, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            if (regex != null) {
+                return regex.matcher(path).region(anchored ? 0 : name, path.length()).matches();
+            }
+            if (anchored) {
+                return path.equals(literal);
+            }
+            return path.length() - name == literal.length() && path.startsWith(literal, name);
+        }
+    }
+
+    /** Constructor for the IgnoreRules class, compiling some patterns
+     *
+     * @param lines The lines of an ignore file
+     */
+    public IgnoreRules(List<String> lines) {
+        for (String line : lines) {
+            String pattern = line.strip();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.indexOf('/') >= 0;
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (pattern.chars().noneMatch(c -> "*?[\\".indexOf(c) >= 0)) {
+                rules.add(new Rule(pattern, null, anchored, directoryOnly, negated));
+            } else {
+                rules.add(new Rule(null, compile(pattern), anchored, directoryOnly, negated));
+            }
+        }
+    }
+
+    /** Reads the rules of a working directory: the default patterns, followed by those of its .minigitignore file
+     *  if it has one
+     *
+     * @param root The working directory
+     * @return The rules
+     */
+    public static IgnoreRules read(File root) {
+        List<String> lines = new ArrayList<>(DEFAULTS.lines().toList());
+        File file = new File(root, FILENAME);
+        if (file.isFile()) {
+            try {
+                lines.addAll(Files.readAllLines(file.toPath()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return new IgnoreRules(lines);
+    }
+
+    /** Checks if a file or directory is ignored. The directories above it are not checked, since the working tree is
+     *  walked from the top and never enters an ignored directory.
+     *
+     * @param path The path of the file or directory, relative to the working directory and without a trailing slash
+     * @param directory Whether the path is a directory
+     * @return whether the last pattern that matches the path ignores it
+     */
+    public boolean isIgnored(String path, boolean directory) {
+        int name = path.lastIndexOf('/') + 1;
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.matches(path, name, directory)) {
+                return !rule.negated();
+            }
+        }
+        return false;
+    }
+
+    /** Returns a regular expression matching the same strings as glob PATTERN. Patterns that are not anchored are
+     *  only matched against names, so they need nothing for the directories before the name. */
+    private static Pattern compile(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (pattern.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 3;
+                continue;
+            }
+            if (pattern.startsWith("**", i)) {
+                regex.append(".*");
+                i += 2;
+                continue;
+            }
+            switch (c) {
+                case '*' -> regex.append("[^/]*");
+                case '?' -> regex.append("[^/]");
+                case '[' -> {
+                    int end = pattern.indexOf(']', i + 2);
+                    if (end < 0) { // no closing bracket, so the bracket is an ordinary character
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = pattern.substring(i + 1, end);
+                    regex.append('[');
+                    if (set.startsWith("!") || set.startsWith("^")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    regex.append(set.replace("\\", "\\\\").replace("[", "\\[").replace("&", "\\&")).append(']');
+                    i = end;
+                }
+                case '\\' -> {
+                    if (i + 1 < pattern.length()) {
+                        i++;
+                    }
+                    regex.append(Pattern.quote(String.valueOf(pattern.charAt(i))));
+                }
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            i++;
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
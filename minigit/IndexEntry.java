@@ -0,0 +1,126 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The stat data of a working file together with the hash value of its contents when it had that stat data. As long
+ *  as a file's size, modification time, change time and inode stay the same, its contents are assumed not to have
+ *  changed either, so the hash value can be reused instead of reading the file again.
+ */
+public final class IndexEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /** The number of bytes an entry takes in the index file */
+    static final int BYTES = ObjectId.BYTES + 32;
+
+    private final ObjectId id;
+    private final long size;
+    private final long mtime;
+    private final long ctime;
+    private final long inode;
+
+    /** Constructor for the IndexEntry class
+     *
+     * @param id The SHA-1 hash value of the file's contents
+     * @param size The size of the file in bytes
+     * @param mtime The time the file's contents last changed, in nanoseconds since the epoch
+     * @param ctime The time the file's inode last changed, in nanoseconds since the epoch, or 0 if unknown
+     * @param inode The inode number of the file, or 0 if unknown
+     */
+    public IndexEntry(ObjectId id, long size, long mtime, long ctime, long inode) {
+        this.id = id;
+        this.size = size;
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.inode = inode;
+    }
+
+    /** Reads the stat data of a file. On file systems without Unix attributes, the change time and inode are 0.
+     *
+     * @param file The file to stat
+     * @param id The SHA-1 hash value of the file's contents, or null if it is not known yet
+     * @return An entry holding the file's current stat data
+     */
+    public static IndexEntry stat(File file, ObjectId id) {
+        Path path = file.toPath();
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ctime,ino");
+                return new IndexEntry(id, (Long) attrs.get("size"), nanos(attrs.get("lastModifiedTime")),
+                        nanos(attrs.get("ctime")), (Long) attrs.get("ino"));
+            } catch (UnsupportedOperationException e) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return new IndexEntry(id, attrs.size(), nanos(attrs.lastModifiedTime()), 0, 0);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Gets the hash value of the file's contents
+     *
+     * @return The SHA-1 hash value, or null if it is not known
+     */
+    public ObjectId getId() {
+        return id;
+    }
+
+    /** Gets the time the file's contents last changed
+     *
+     * @return The modification time, in nanoseconds since the epoch
+     */
+    public long getMtime() {
+        return mtime;
+    }
+
+    /** Makes a copy of this entry that records the hash value of the file's contents
+     *
+     * @param id The SHA-1 hash value of the file's contents
+     * @return An entry with this stat data and the hash value
+     */
+    public IndexEntry withId(ObjectId id) {
+        return new IndexEntry(id, size, mtime, ctime, inode);
+    }
+
+    /** Checks if another entry has exactly the same stat data as this one
+     *
+     * @param other The entry to compare with
+     * @return whether the size, modification time, change time and inode are all the same
+     */
+    public boolean sameStat(IndexEntry other) {
+        return size == other.size && mtime == other.mtime && ctime == other.ctime && inode == other.inode;
+    }
+
+    /** Writes this entry to the index file
+     *
+     * @param buffer The buffer to write the hash value and stat data to, at its position
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(id.toBytes()).putLong(size).putLong(mtime).putLong(ctime).putLong(inode);
+    }
+
+    /** Reads an entry written by writeTo
+     *
+     * @param buffer The buffer holding the entry
+     * @param offset The position of the entry in the buffer
+     * @return The entry
+     */
+    static IndexEntry readFrom(ByteBuffer buffer, int offset) {
+        ObjectId id = new ObjectId(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getInt(offset + 16));
+        int stat = offset + ObjectId.BYTES;
+        return new IndexEntry(id, buffer.getLong(stat), buffer.getLong(stat + 8), buffer.getLong(stat + 16),
+                buffer.getLong(stat + 24));
+    }
+
+    /** Returns the FileTime TIME in nanoseconds since the epoch. */
+    private static long nanos(Object time) {
+        return ((FileTime) time).to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,272 @@
+package minigit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/** The index file, which holds the staging area and the cached stat data of working files.
+ *
+ *  The file is a header, then one fixed-width entry per path in ascending order of path, then the paths themselves:
+ *      "MGIX" | version | entry count | length of the paths | CRC-32 of the rest of the header and the paths
+ *      (offset of path | length of path | flags | staged hash value | cached hash value and stat data | CRC-32)...
+ *      UTF-8 paths...
+ *  Because the entries have a fixed width and are sorted, looking up one path is a binary search that reads only the
+ *  entries it compares against, and every entry has a checksum of its own so that reading one never has to check the
+ *  rest of the file. The file is never written over in place: every change writes a new file next to the old one,
+ *  flushes it to the storage device and renames it over the old one, so a crash leaves either the old index or the
+ *  new one. When only the entries of paths already in the file change, the new file is a copy of the old one with
+ *  just those entries replaced, so the other entries need not be decoded and encoded again.
+ */
+public class IndexFile {
+    static final String MAGIC = "MGIX";
+    static final int VERSION = 1;
+    static final int HEADER = 20;
+    static final int ENTRY = 12 + ObjectId.BYTES + IndexEntry.BYTES + 4;
+    /** Set in the flags of a path that is staged for addition */
+    static final int STAGED_ADD = 1;
+    /** Set in the flags of a path that is staged for removal */
+    static final int STAGED_REMOVE = 2;
+    /** Set in the flags of a path whose stat data and hash value are cached */
+    static final int CACHED = 4;
+
+    private final File file;
+    private final MappedByteBuffer map;
+    private final int count;
+    /** The position of the entry last checked against its checksum, so reading several fields of it checks it once */
+    private int checked = -1;
+
+    /** Maps an index file into memory, checking its header and paths but not its entries
+     *
+     * @param file The index file
+     */
+    public IndexFile(File file) {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[4];
+        if (map.capacity() >= HEADER) {
+            map.get(0, magic);
+        }
+        if (!Arrays.equals(magic, MAGIC.getBytes()) || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not an index file: " + file);
+        }
+        count = map.getInt(8);
+        if (count < 0 || map.capacity() != HEADER + (long) count * ENTRY + map.getInt(12)) {
+            throw new IllegalArgumentException("index file has the wrong size: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(map.slice(4, 12));
+        crc.update(map.slice(paths(), map.getInt(12)));
+        if ((int) crc.getValue() != map.getInt(16)) {
+            throw new IllegalArgumentException("index file is corrupt: " + file);
+        }
+    }
+
+    /** Checks if a file is in this format, rather than being a staging area serialized by earlier versions of MiniGit
+     *
+     * @param file The index file
+     * @return whether the file starts with the magic number of this format
+     */
+    public static boolean isIndexFile(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return Arrays.equals(in.readNBytes(4), MAGIC.getBytes());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Gets the number of paths in the index
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /** Finds the entry of a path
+     *
+     * @param path The path to look up
+     * @return The position of its entry, or -1 if the index has none
+     */
+    public int find(String path) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = path(mid).compareTo(path);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Gets the path of an entry
+     *
+     * @param position The position of the entry
+     * @return The path
+     */
+    public String path(int position) {
+        int entry = entry(position);
+        byte[] path = new byte[map.getInt(entry + 4)];
+        map.get(paths() + map.getInt(entry), path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    /** Gets the flags of an entry, which say what the index holds for its path
+     *
+     * @param position The position of the entry
+     * @return Some of STAGED_ADD, STAGED_REMOVE and CACHED
+     */
+    public int flags(int position) {
+        return map.getInt(entry(position) + 8);
+    }
+
+    /** Gets the hash value a path is staged for addition with
+     *
+     * @param position The position of the entry
+     * @return The hash value, or null if the path is not staged for addition
+     */
+    public ObjectId staged(int position) {
+        int entry = entry(position);
+        if ((map.getInt(entry + 8) & STAGED_ADD) == 0) {
+            return null;
+        }
+        return new ObjectId(map.getLong(entry + 12), map.getLong(entry + 20), map.getInt(entry + 28));
+    }
+
+    /** Gets the cached stat data and hash value of a working file
+     *
+     * @param position The position of the entry
+     * @return The cached entry, or null if none is cached for the path
+     */
+    public IndexEntry cached(int position) {
+        int entry = entry(position);
+        if ((map.getInt(entry + 8) & CACHED) == 0) {
+            return null;
+        }
+        return IndexEntry.readFrom(map, entry + 12 + ObjectId.BYTES);
+    }
+
+    /** Writes the index file again with the entries of some paths replaced and the rest of it copied as it is,
+     *  replacing the old file atomically as write() does. Nothing is written unless every path already has an entry
+     *  and still has something in the index, since adding or dropping a path needs the whole file to be encoded again.
+     *  The file must be opened again to read the new entries.
+     *
+     * @param changed The paths whose entries changed
+     * @param flags Gives the flags of a path
+     * @param staged Gives the hash value a path is staged for addition with, or null
+     * @param cached Gives the cached stat data of a path, or null
+     * @return whether the entries were written
+     */
+    public boolean update(Collection<String> changed, ToIntFunction<String> flags,
+                          Function<String, ObjectId> staged, Function<String, IndexEntry> cached) {
+        int[] positions = new int[changed.size()];
+        int i = 0;
+        for (String path : changed) {
+            positions[i] = find(path);
+            if (positions[i++] < 0 || flags.applyAsInt(path) == 0) {
+                return false;
+            }
+        }
+        byte[] contents = new byte[map.capacity()];
+        map.get(0, contents);
+        ByteBuffer entries = ByteBuffer.wrap(contents);
+        i = 0;
+        for (String path : changed) {
+            int old = offset(positions[i++]);
+            putEntry(entries.position(old), map.getInt(old), map.getInt(old + 4), flags.applyAsInt(path),
+                    staged.apply(path), cached.apply(path));
+        }
+        Utils.writeContents(file, contents);
+        return true;
+    }
+
+    /** Writes a whole index file, replacing the old one atomically once the new one is complete and flushed
+     *
+     * @param file The index file
+     * @param paths Every path in the index, in ascending order
+     * @param flags Gives the flags of a path
+     * @param staged Gives the hash value a path is staged for addition with, or null
+     * @param cached Gives the cached stat data of a path, or null
+     */
+    public static void write(File file, List<String> paths, ToIntFunction<String> flags,
+                             Function<String, ObjectId> staged, Function<String, IndexEntry> cached) {
+        ByteBuffer entries = ByteBuffer.allocate(paths.size() * ENTRY);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (String path : paths) {
+            byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            putEntry(entries, names.size(), name.length, flags.applyAsInt(path), staged.apply(path),
+                    cached.apply(path));
+            names.writeBytes(name);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER).put(MAGIC.getBytes()).putInt(VERSION).putInt(paths.size())
+                .putInt(names.size());
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 4, 12);
+        crc.update(names.toByteArray());
+        header.putInt((int) crc.getValue()).flip();
+
+        Utils.writeContents(file, header.array(), entries.array(), names.toByteArray());
+    }
+
+    /** Puts an entry at the position of BUFFER, for the path of PATHLENGTH bytes at PATHOFFSET of the paths. */
+    private static void putEntry(ByteBuffer buffer, int pathOffset, int pathLength, int flags, ObjectId staged,
+                                 IndexEntry cached) {
+        int start = buffer.position();
+        buffer.putInt(pathOffset).putInt(pathLength).putInt(flags);
+        buffer.put(staged == null ? new byte[ObjectId.BYTES] : staged.toBytes());
+        if (cached == null) {
+            buffer.put(new byte[IndexEntry.BYTES]);
+        } else {
+            cached.writeTo(buffer);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, ENTRY - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /** Returns the offset of the entry at POSITION, after checking it against its checksum. */
+    private int entry(int position) {
+        int offset = offset(position);
+        if (position != checked) {
+            CRC32 crc = new CRC32();
+            crc.update(map.slice(offset, ENTRY - 4));
+            if ((int) crc.getValue() != map.getInt(offset + ENTRY - 4)) {
+                throw new IllegalArgumentException("index file is corrupt: " + file);
+            }
+            checked = position;
+        }
+        return offset;
+    }
+
+    /** Returns the offset of the paths in the file. */
+    private int paths() {
+        return HEADER + count * ENTRY;
+    }
+
+    /** Returns the offset of the entry at POSITION. */
+    private static int offset(int position) {
+        return HEADER + position * ENTRY;
+    }
+}
@@ -7,6 +7,28 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        // every command but init holds the repository's lock throughout, so that concurrent commands cannot lose each
+        // other's updates; init only starts a repository that does not exist yet
+        RepositoryLock lock = null;
+        if (args.length > 0 && !args[0].equals("init") && Repository.MINIGIT_PATH.isDirectory()) {
+            lock = RepositoryLock.acquire(Repository.MINIGIT_PATH, RepositoryLock.TIMEOUT_MILLIS);
+            if (lock == null) {
+                System.out.println("Another MiniGit process (pid " + RepositoryLock.holder(Repository.MINIGIT_PATH)
+                        + ") is using this repository; try again once it has finished.");
+                System.exit(19);
+            }
+        }
+        try {
+            run(args);
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+
+    /** Runs the command given by ARGS. */
+    private static void run(String[] args) {
         Repository r = new Repository();
 
         if (args.length == 0) {
@@ -20,7 +42,7 @@ public class Main {
                 r.init();
             }
             case "add" -> {
-                r.validateNumArgs("add", args, 2);
+                r.validateAtLeast("add", args, 2);
                 r.validateInit();
                 r.add(args);
             }
@@ -35,14 +57,14 @@ public class Main {
                 r.rm(args);
             }
             case "log" -> {
-                r.validateNumArgs("log", args, 1);
+                r.validateLessThan("log", args, 5);
                 r.validateInit();
-                r.log();
+                r.log(args);
             }
             case "global-log" -> {
-                r.validateNumArgs("global-log", args, 1);
+                r.validateLessThan("global-log", args, 5);
                 r.validateInit();
-                r.globalLog();
+                r.globalLog(args);
             }
             case "find" -> {
                 r.validateNumArgs("find", args, 2);
@@ -74,6 +96,26 @@ public class Main {
                 r.validateInit();
                 r.status();
             }
+            case "reindex" -> {
+                r.validateNumArgs("reindex", args, 1);
+                r.validateInit();
+                r.reindex();
+            }
+            case "fsck" -> {
+                r.validateNumArgs("fsck", args, 1);
+                r.validateInit();
+                r.fsck();
+            }
+            case "repack" -> {
+                r.validateNumArgs("repack", args, 1);
+                r.validateInit();
+                r.repack();
+            }
+            case "migrate" -> {
+                r.validateNumArgs("migrate", args, 1);
+                r.validateInit();
+                r.migrate();
+            }
             default -> r.exitWithError("No command with that name exists.");
     }
     }
@@ -0,0 +1,257 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** An index from commit messages to the commits that have them, so that find does not have to read every commit.
+ *
+ *  The index is a hash table with open addressing, kept in one memory-mapped file:
+ *      "MMSG" | version | entry count | slot count
+ *      (SHA-1 hash value of a message | commit id)...
+ *  The slot count is a power of two and an entry starts looking for a free slot at the one picked by the hash value of
+ *  its message, moving on to the next slot while that one is taken. A slot whose commit id is all zeros is free. The
+ *  table is kept at most half full, so every commit with a message sits in the short run of taken slots that starts at
+ *  the message's slot, and looking a message up reads only that run. A commit is added to the table when it is made;
+ *  when the table would become more than half full, it is rewritten with twice as many slots.
+ */
+public class MessageIndex {
+    static final String MAGIC = "MMSG";
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    static final int SLOT = 2 * ObjectId.BYTES;
+    static final int MIN_SLOTS = 1024;
+
+    private final File file;
+    private MappedByteBuffer map;
+
+    /** Constructor for the MessageIndex class
+     *
+     * @param file The file holding the index, which does not have to exist yet
+     */
+    public MessageIndex(File file) {
+        this.file = file;
+    }
+
+    /** Checks if the index has been built. Repositories made before it existed have to be reindexed first.
+     *
+     * @return whether the index exists
+     */
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /** Records a commit under its message
+     *
+     * @param message The message of the commit
+     * @param commit The hash value of the commit
+     */
+    public void add(String message, ObjectId commit) {
+        MappedByteBuffer table = table();
+        int count = table.getInt(8);
+        int slots = table.getInt(12);
+        if (2 * (count + 1) <= slots) {
+            insert(table, slots, key(message), commit);
+            table.putInt(8, count + 1);
+            return;
+        }
+        List<ObjectId> keys = new ArrayList<>();
+        List<ObjectId> commits = new ArrayList<>();
+        readEntries(table, slots, keys, commits);
+        keys.add(key(message));
+        commits.add(commit);
+        write(keys, commits);
+    }
+
+    /** Finds every commit with a message
+     *
+     * @param message The message to look up
+     * @return The hash values of the commits with exactly that message, in ascending order
+     */
+    public List<ObjectId> find(String message) {
+        MappedByteBuffer table = table();
+        int mask = table.getInt(12) - 1;
+        ObjectId key = key(message);
+        List<ObjectId> result = new ArrayList<>();
+        for (int slot = home(key, mask); !isFree(table, slot); slot = (slot + 1) & mask) {
+            if (readId(table, offset(slot)).equals(key)) {
+                result.add(readId(table, offset(slot) + ObjectId.BYTES));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Builds the index again from scratch. The new index is written next to the old one and then renamed over it,
+     *  so an interrupted rebuild leaves the old index as it was.
+     *
+     * @param commits The hash values of every commit in the repository
+     * @param messages The messages of the commits
+     */
+    public void rebuild(List<ObjectId> commits, List<String> messages) {
+        List<ObjectId> keys = new ArrayList<>(commits.size());
+        for (String message : messages) {
+            keys.add(key(message));
+        }
+        write(keys, commits);
+    }
+
+    /** Compares the index against the commits it should hold
+     *
+     * @param commits The hash values of every commit in the repository
+     * @param messages The messages of the commits
+     * @return A description of every inconsistency found, which is empty if the index is correct
+     */
+    public List<String> check(List<ObjectId> commits, List<String> messages) {
+        List<String> problems = new ArrayList<>();
+        List<ObjectId> keys = new ArrayList<>();
+        List<ObjectId> indexed = new ArrayList<>();
+        try {
+            MappedByteBuffer table = table();
+            int count = table.getInt(8);
+            int slots = table.getInt(12);
+            if (Integer.bitCount(slots) != 1 || table.capacity() != HEADER + (long) slots * SLOT) {
+                problems.add("message index has the wrong size");
+                return problems;
+            }
+            readEntries(table, slots, keys, indexed);
+            if (indexed.size() != count) {
+                problems.add("message index holds " + indexed.size() + " commits but its header says " + count);
+            }
+        } catch (IllegalArgumentException e) {
+            problems.add("message index cannot be read: " + e.getMessage());
+            return problems;
+        }
+
+        Set<ObjectId> known = new HashSet<>(commits);
+        Map<ObjectId, ObjectId> keyOf = new HashMap<>();
+        for (int i = 0; i < indexed.size(); i++) {
+            ObjectId id = indexed.get(i);
+            if (!known.contains(id)) {
+                problems.add("message index lists unknown commit " + id);
+            } else if (keyOf.put(id, keys.get(i)) != null) {
+                problems.add("message index lists commit " + id + " more than once");
+            }
+        }
+        for (int i = 0; i < commits.size(); i++) {
+            ObjectId id = commits.get(i);
+            ObjectId key = keyOf.get(id);
+            if (key == null) {
+                problems.add("message index is missing commit " + id);
+            } else if (!key.equals(key(messages.get(i)))) {
+                problems.add("message index lists commit " + id + " under the wrong message");
+            }
+        }
+        return problems;
+    }
+
+    /** Writes a new index holding the commits COMMITS under the message hash values KEYS, replacing the old one. */
+    private void write(List<ObjectId> keys, List<ObjectId> commits) {
+        int slots = MIN_SLOTS;
+        while (slots < 2 * keys.size()) {
+            slots *= 2;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) slots * SLOT);
+            table.put(MAGIC.getBytes()).putInt(VERSION).putInt(keys.size()).putInt(slots);
+            for (int i = 0; i < keys.size(); i++) {
+                insert(table, slots, keys.get(i), commits.get(i));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        map = null;
+    }
+
+    /** Returns the index file mapped into memory, mapping it the first time it is needed. */
+    private MappedByteBuffer table() {
+        if (map == null) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            checkHeader(map);
+        }
+        return map;
+    }
+
+    /** Puts an entry into the first free slot of MAP at or after the slot picked by KEY. */
+    private static void insert(MappedByteBuffer map, int slots, ObjectId key, ObjectId commit) {
+        int mask = slots - 1;
+        int slot = home(key, mask);
+        while (!isFree(map, slot)) {
+            slot = (slot + 1) & mask;
+        }
+        byte[] entry = new byte[SLOT];
+        key.copyTo(entry, 0);
+        commit.copyTo(entry, ObjectId.BYTES);
+        map.put(offset(slot), entry);
+    }
+
+    /** Adds the message hash value and commit id of every taken slot of MAP to KEYS and COMMITS. */
+    private static void readEntries(MappedByteBuffer map, int slots, List<ObjectId> keys, List<ObjectId> commits) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (!isFree(map, slot)) {
+                keys.add(readId(map, offset(slot)));
+                commits.add(readId(map, offset(slot) + ObjectId.BYTES));
+            }
+        }
+    }
+
+    /** Checks the magic number and version of the index in MAP. */
+    private void checkHeader(MappedByteBuffer map) {
+        byte[] magic = new byte[4];
+        if (map.capacity() >= HEADER) {
+            map.get(0, magic);
+        }
+        if (!new String(magic).equals(MAGIC) || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a message index: " + file);
+        }
+    }
+
+    /** Returns the hash value of MESSAGE, which is the key it is stored under. */
+    private static ObjectId key(String message) {
+        return ObjectId.fromHex(Utils.sha1(message));
+    }
+
+    /** Returns the slot that entries for KEY start looking from, given the slot mask MASK. */
+    private static int home(ObjectId key, int mask) {
+        return key.hashCode() & mask;
+    }
+
+    /** Returns whether SLOT of MAP is free, which it is when its commit id is all zeros. */
+    private static boolean isFree(MappedByteBuffer map, int slot) {
+        int commit = offset(slot) + ObjectId.BYTES;
+        return map.getLong(commit) == 0 && map.getLong(commit + 8) == 0 && map.getInt(commit + 16) == 0;
+    }
+
+    /** Returns the offset of SLOT in the file. */
+    private static int offset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    /** Returns the hash value stored at OFFSET of MAP. */
+    private static ObjectId readId(MappedByteBuffer map, int offset) {
+        return new ObjectId(map.getLong(offset), map.getLong(offset + 8), map.getInt(offset + 16));
+    }
+}
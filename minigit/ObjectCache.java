@@ -0,0 +1,79 @@
+package minigit;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/** A cache of objects decoded from an object store, such as commits or the files of trees, by hash value.
+ *
+ *  The cache holds at most a fixed number of objects and evicts the least recently used one to make room for another.
+ *  Objects are only held through soft references, so the garbage collector can still reclaim them when memory runs
+ *  low; one that was reclaimed is read again the next time it is asked for. Objects are content-addressed, so a cached
+ *  object never goes stale. Every lookup counts as a hit or a miss, so that callers can check how often the cache
+ *  saves a read. The cache is safe to use from several threads at once, and objects are loaded outside its lock.
+ */
+public class ObjectCache<V> {
+    private final LinkedHashMap<ObjectId, SoftReference<V>> entries;
+    private long hits;
+    private long misses;
+
+    /** Constructor for the ObjectCache class
+     *
+     * @param capacity The most objects the cache holds at once
+     */
+    public ObjectCache(int capacity) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, SoftReference<V>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Gets an object from the cache, loading it and caching it if it is not there
+     *
+     * @param id The hash value of the object
+     * @param load Reads the object, given its hash value
+     * @return The object
+     */
+    public V get(ObjectId id, Function<ObjectId, V> load) {
+        synchronized (this) {
+            SoftReference<V> cached = entries.get(id);
+            V value = cached == null ? null : cached.get();
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+        }
+        V value = load.apply(id);
+        put(id, value);
+        return value;
+    }
+
+    /** Caches an object that was just written, so that it need not be read back
+     *
+     * @param id The hash value of the object
+     * @param value The object
+     */
+    public synchronized void put(ObjectId id, V value) {
+        entries.put(id, new SoftReference<>(value));
+    }
+
+    /** Gets the number of lookups that found their object in the cache
+     *
+     * @return The number of hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Gets the number of lookups that had to load their object
+     *
+     * @return The number of misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+}
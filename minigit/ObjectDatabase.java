@@ -0,0 +1,359 @@
+package minigit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The objects of one kind (blobs, commits or trees) in a MiniGit repository.
+ *
+ *  New objects are written loose, one file per object named by its SHA-1 hash value. The repack() method folds every
+ *  object into a single pack in the pack/ subdirectory, and readers check the packs before the loose objects.
+ *
+ *  Loose objects are Deflate-compressed unless the repository predates compression, and are moved through streams so
+ *  that an object never has to fit in memory to be written or checked out. Repositories made since fan-out was added
+ *  shard loose objects Git-style into 256 subdirectories named by the first two digits of their hash value
+ *  (blobs/ab/cdef...), so that no single directory gets too large to list or search.
+ */
+public class ObjectDatabase implements ObjectStore {
+    private final File dir;
+    private final File packDir;
+    private final boolean compressed;
+    private final boolean fanout;
+    private List<PackFile> packs;
+
+    /** Constructor for the ObjectDatabase class
+     *
+     * @param dir The directory holding the objects, such as .minigit/blobs
+     * @param compressed Whether loose objects are Deflate-compressed
+     * @param fanout Whether loose objects are sharded into subdirectories by the first two digits of their hash value
+     */
+    public ObjectDatabase(File dir, boolean compressed, boolean fanout) {
+        this.dir = dir;
+        this.packDir = Utils.join(dir, "pack");
+        this.compressed = compressed;
+        this.fanout = fanout;
+    }
+
+    @Override
+    public boolean contains(ObjectId id) {
+        for (PackFile p : getPacks()) {
+            if (p.contains(id)) {
+                return true;
+            }
+        }
+        return loose(id).isFile();
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        for (PackFile p : getPacks()) {
+            if (p.contains(id)) {
+                return p.read(id);
+            }
+        }
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(ObjectId id) {
+        for (PackFile p : getPacks()) {
+            if (p.contains(id)) {
+                return p.open(id);
+            }
+        }
+        File file = loose(id);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("no object with id " + id);
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            return compressed ? new InflaterInputStream(in) : in;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public List<ObjectId> list() {
+        TreeSet<ObjectId> ids = new TreeSet<>();
+        for (PackFile p : getPacks()) {
+            ids.addAll(p.list());
+        }
+        ids.addAll(looseIds(""));
+        return new ArrayList<>(ids);
+    }
+
+    /** Finds every object whose hash value starts with an abbreviated id. With fan-out directories, only the one shard
+     *  that such objects can be in is listed, and each pack is binary searched.
+     *
+     * @param prefix The first hexadecimal digits of a hash value
+     * @return The hash values of the matching objects, in ascending order
+     */
+    @Override
+    public List<ObjectId> resolve(String prefix) {
+        if (!ObjectId.isValidPrefix(prefix)) {
+            return new ArrayList<>();
+        }
+        TreeSet<ObjectId> ids = new TreeSet<>();
+        for (PackFile p : getPacks()) {
+            ids.addAll(p.resolve(prefix));
+        }
+        ids.addAll(looseIds(prefix));
+        return new ArrayList<>(ids);
+    }
+
+    /** Stores an object under the SHA-1 hash value of its contents. Each object is written once: nothing is written
+     *  if the database already has the object, loose or packed. This is safe to call from several threads at once.
+     *
+     * @param contents The contents of the object
+     * @return The hash value of the object
+     */
+    public ObjectId put(byte[] contents) {
+        ObjectId id = ObjectId.fromHex(Utils.sha1(contents));
+        if (!contains(id)) {
+            write(id, contents);
+        }
+        return id;
+    }
+
+    /** Stores a file as an object whose hash value is already known, such as a working file that was just hashed.
+     *  The file is only read if the database does not have the object yet. This is safe to call from several threads
+     *  at once.
+     *
+     * @param id The SHA-1 hash value of the file's contents
+     * @param source The file
+     * @return whether the object was written
+     */
+    public boolean put(ObjectId id, File source) {
+        if (contains(id)) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(source)) {
+            write(id, in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return true;
+    }
+
+    /** Writes an object as a loose object
+     *
+     * @param id The SHA-1 hash value of the object
+     * @param contents The contents of the object
+     */
+    public void write(ObjectId id, byte[] contents) {
+        write(id, new ByteArrayInputStream(contents));
+    }
+
+    /** Writes an object as a loose object, streaming its contents. The object is written to a temporary file that is
+     *  then renamed into place, so a reader never sees part of an object, and threads writing the same object at once
+     *  each rename a complete copy of it. The temporary file is named as Utils.writeAll names its own, so it is never
+     *  taken for an object, and repack deletes any that an interrupted write left behind.
+     *
+     * @param id The SHA-1 hash value of the object
+     * @param contents The stream to read the contents of the object from
+     */
+    public void write(ObjectId id, InputStream contents) {
+        File target = loose(id);
+        target.getParentFile().mkdirs();
+        try {
+            Path tmp = Utils.createTempBeside(target);
+            try (OutputStream out = compressed
+                    ? new DeflaterOutputStream(Files.newOutputStream(tmp))
+                    : Files.newOutputStream(tmp)) {
+                contents.transferTo(out);
+            } catch (IOException e) {
+                Files.delete(tmp);
+                throw e;
+            }
+            Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Folds every loose object and every existing pack into a single new pack, then deletes the loose objects and
+     *  old packs that it replaces, which PackFile.write has flushed to the storage device by then. Temporary files
+     *  left by interrupted writes of loose objects are deleted first. Objects that are versions of the same file are
+     *  stored as deltas against each other.
+     *
+     * @param names The filename that each object was committed under, used to pick delta bases
+     */
+    public void repack(Map<ObjectId, String> names) {
+        deleteTempFiles(dir);
+        if (fanout) {
+            File[] shards = dir.listFiles((d, name) -> name.length() == 2);
+            if (shards != null) {
+                for (File shard : shards) {
+                    deleteTempFiles(shard);
+                }
+            }
+        }
+        List<ObjectId> looseIds = looseIds("");
+        if (looseIds.isEmpty() && getPacks().size() <= 1) { // already fully packed
+            return;
+        }
+        List<PackFile> oldPacks = getPacks();
+        File newIdx = PackFile.write(packDir, this, list(), names, this::sizeHint);
+
+        for (PackFile p : oldPacks) {
+            File oldPack = p.getPack();
+            if (oldPack.getName().equals(newIdx.getName().replace(".idx", ".pack"))) { // same objects, kept in place
+                continue;
+            }
+            new File(oldPack.getPath().replace(".pack", ".idx")).delete();
+            oldPack.delete();
+        }
+        for (ObjectId id : looseIds) {
+            loose(id).delete();
+            if (fanout) {
+                loose(id).getParentFile().delete(); // only succeeds once the shard is empty
+            }
+        }
+        packs = null;
+    }
+
+    /** Moves every loose object of this database into another database over the same directory that uses a newer
+     *  layout, recompressing objects only when the two databases disagree on compression. An object is deleted from
+     *  this database only once it is in the other one, so an interrupted move can simply be run again.
+     *
+     * @param target The database to move the loose objects into
+     */
+    public void moveLooseObjectsTo(ObjectDatabase target) {
+        for (ObjectId id : looseIds("")) {
+            File from = loose(id);
+            File to = target.loose(id);
+            if (from.equals(to)) {
+                continue;
+            }
+            if (compressed == target.compressed) {
+                to.getParentFile().mkdirs();
+                if (!from.renameTo(to)) {
+                    throw Utils.error("Could not move object %s", id);
+                }
+            } else {
+                try (InputStream in = open(id)) {
+                    target.write(id, in);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+                from.delete();
+            }
+        }
+    }
+
+    /** Deletes the temporary files that interrupted writes of loose objects left in DIR. No object is being written
+     *  while the repository is locked for repacking, so none of them is still in use. */
+    private static void deleteTempFiles(File dir) {
+        File[] temps = dir.listFiles((d, name) -> name.matches(Utils.TEMP_FILE_NAME));
+        if (temps != null) {
+            for (File temp : temps) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Gets the hash values of the loose objects of this database that start with a prefix
+     *
+     * @param prefix The first hexadecimal digits of the hash values, or "" for every loose object
+     * @return The hash values of the matching loose objects, in ascending order
+     */
+    private List<ObjectId> looseIds(String prefix) {
+        List<ObjectId> ids = new ArrayList<>();
+        if (!fanout) {
+            List<String> files = Utils.plainFilenamesIn(dir);
+            if (files != null) {
+                for (String name : files) {
+                    if (ObjectId.isValid(name) && name.startsWith(prefix)) {
+                        ids.add(ObjectId.fromHex(name));
+                    }
+                }
+            }
+            return ids;
+        }
+        String[] shards = prefix.length() >= 2
+                ? new String[]{prefix.substring(0, 2)}
+                : dir.list((d, name) -> name.length() == 2 && name.startsWith(prefix));
+        if (shards == null) {
+            return ids;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            List<String> files = Utils.plainFilenamesIn(Utils.join(dir, shard));
+            if (files != null) {
+                for (String rest : files) {
+                    String name = shard + rest;
+                    if (ObjectId.isValid(name) && name.startsWith(prefix)) {
+                        ids.add(ObjectId.fromHex(name));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Gets the packs of this database, opening them the first time they are needed. This is safe to call from
+     *  several threads at once.
+     *
+     * @return Every pack in the pack/ subdirectory
+     */
+    private synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            List<PackFile> found = new ArrayList<>();
+            File[] idxFiles = packDir.listFiles((d, name) -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File f : idxFiles) {
+                    found.add(new PackFile(f));
+                }
+            }
+            packs = found;
+        }
+        return packs;
+    }
+
+    /** Gets roughly how large an object is without reading it, to order the versions of a file when packing them:
+     *  the size of a packed object, or the size of a loose object's file, which is compressed in most repositories.
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return The size of the object, or an estimate of it
+     */
+    private long sizeHint(ObjectId id) {
+        for (PackFile p : getPacks()) {
+            if (p.contains(id)) {
+                return p.size(id);
+            }
+        }
+        return loose(id).length();
+    }
+
+    /** Gets the file of a loose object
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return The file that holds the object when it is loose
+     */
+    private File loose(ObjectId id) {
+        String hex = id.toHex();
+        if (!fanout) {
+            return Utils.join(dir, hex);
+        }
+        return Utils.join(dir, hex.substring(0, 2), hex.substring(2));
+    }
+}
@@ -0,0 +1,228 @@
+package minigit;
+
+import java.io.Serializable;
+
+/** The SHA-1 hash value that names an object, held as its 20 raw bytes packed into two longs and an int instead of a
+ *  40 character hexadecimal String. ObjectIds are immutable, compare in the same order as their hexadecimal forms,
+ *  and are cheap to hash and compare, which makes them good keys for HashMaps.
+ */
+public final class ObjectId implements Serializable, Comparable<ObjectId> {
+    private static final long serialVersionUID = 1L;
+    /** The number of bytes in an ObjectId. */
+    static final int BYTES = 20;
+    /** The digits of a hexadecimal numeral, indexed by their value. */
+    static final String HEX_DIGITS = "0123456789abcdef";
+
+    private final long w1;
+    private final long w2;
+    private final int w3;
+
+    /** Constructor for the ObjectId class
+     *
+     * @param w1 Bytes 0 to 7 of the hash value
+     * @param w2 Bytes 8 to 15 of the hash value
+     * @param w3 Bytes 16 to 19 of the hash value
+     */
+    public ObjectId(long w1, long w2, int w3) {
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /** Makes an ObjectId from 20 bytes of a hash value
+     *
+     * @param bytes The array holding the hash value
+     * @param offset The position of the hash value in the array
+     * @return The ObjectId of the hash value
+     */
+    public static ObjectId fromBytes(byte[] bytes, int offset) {
+        return new ObjectId(readLong(bytes, offset), readLong(bytes, offset + 8),
+                (int) (readLong(bytes, offset + 12)));
+    }
+
+    /** Makes an ObjectId from its 40 character hexadecimal form. Throws IllegalArgumentException if ID is not one.
+     *
+     * @param id The hexadecimal form of the hash value
+     * @return The ObjectId of the hash value
+     */
+    public static ObjectId fromHex(String id) {
+        if (!isValid(id)) {
+            throw new IllegalArgumentException("not an object id: " + id);
+        }
+        return new ObjectId(parseHex(id, 0, 16), parseHex(id, 16, 32), (int) parseHex(id, 32, 40));
+    }
+
+    /** Converts a hash value read from an object serialized before ObjectId existed, which held it as a String
+     *
+     * @param id A hash value as either an ObjectId or its hexadecimal String, or null
+     * @return The ObjectId of the hash value, or null if ID is null
+     */
+    public static ObjectId fromStored(Object id) {
+        if (id == null || id instanceof ObjectId) {
+            return (ObjectId) id;
+        }
+        return fromHex((String) id);
+    }
+
+    /** Checks if a String is the 40 character hexadecimal form of a hash value
+     *
+     * @param id The String to check
+     * @return whether the String is a valid object id
+     */
+    public static boolean isValid(String id) {
+        if (id == null || id.length() != 2 * BYTES) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (HEX_DIGITS.indexOf(id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Checks if a String could be the start of the hexadecimal form of a hash value, as an abbreviated id is
+     *
+     * @param prefix The String to check
+     * @return whether the String is 1 to 40 hexadecimal digits
+     */
+    public static boolean isValidPrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty() || prefix.length() > 2 * BYTES) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (HEX_DIGITS.indexOf(prefix.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Gets the smallest hash value that starts with a prefix, which is where a sorted search for the prefix begins
+     *
+     * @param prefix A valid hexadecimal prefix
+     * @return The prefix followed by zeros
+     */
+    public static ObjectId lowestWithPrefix(String prefix) {
+        return fromHex(prefix + "0".repeat(2 * BYTES - prefix.length()));
+    }
+
+    /** Gets the first byte of the hash value, which picks the fan-out bucket of the object
+     *
+     * @return The first byte, from 0 to 255
+     */
+    public int firstByte() {
+        return (int) (w1 >>> 56);
+    }
+
+    /** Copies the 20 bytes of the hash value into an array
+     *
+     * @param bytes The array to copy into
+     * @param offset The position in the array to copy to
+     */
+    public void copyTo(byte[] bytes, int offset) {
+        writeLong(bytes, offset, w1);
+        writeLong(bytes, offset + 8, w2);
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + 16 + i] = (byte) (w3 >>> (24 - 8 * i));
+        }
+    }
+
+    /** Gets the 20 bytes of the hash value
+     *
+     * @return A new array holding the hash value
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    /** Gets the 40 character hexadecimal form of the hash value
+     *
+     * @return The hash value as a hexadecimal numeral
+     */
+    public String toHex() {
+        char[] out = new char[2 * BYTES];
+        formatHex(out, 0, w1, 16);
+        formatHex(out, 16, w2, 16);
+        formatHex(out, 32, w3 & 0xffffffffL, 8);
+        return new String(out);
+    }
+
+    /** Checks if the hexadecimal form of the hash value starts with a prefix
+     *
+     * @param prefix A hexadecimal prefix
+     * @return whether the hash value starts with the prefix
+     */
+    public boolean startsWith(String prefix) {
+        return toHex().startsWith(prefix);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) w1; // the bytes of a SHA-1 hash value are already uniformly distributed
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(w1, other.w1);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(w2, other.w2);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(w3, other.w3);
+        }
+        return cmp;
+    }
+
+    /** Writes the lowest DIGITS hexadecimal digits of VALUE into OUT at START, looking each digit up in HEX_DIGITS. */
+    private static void formatHex(char[] out, int start, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            out[start + i] = HEX_DIGITS.charAt((int) (value & 0xf));
+            value >>>= 4;
+        }
+    }
+
+    /** Parses the hexadecimal digits of ID from START to END into a number. */
+    private static long parseHex(String id, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 4) | Character.digit(id.charAt(i), 16);
+        }
+        return value;
+    }
+
+    /** Reads 8 bytes of BYTES at OFFSET as a big-endian long. */
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /** Writes VALUE into BYTES at OFFSET as a big-endian long. */
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+}
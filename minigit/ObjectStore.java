@@ -0,0 +1,43 @@
+package minigit;
+
+import java.io.InputStream;
+import java.util.List;
+
+/** A store of content-addressed objects, where every object is looked up by the ObjectId of its SHA-1 hash value.
+ */
+public interface ObjectStore {
+
+    /** Checks if an object exists in the store
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return whether the object exists in the store
+     */
+    boolean contains(ObjectId id);
+
+    /** Gets the contents of an object. Throws IllegalArgumentException if the object does not exist.
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return The contents of the object
+     */
+    byte[] read(ObjectId id);
+
+    /** Opens a stream over the contents of an object. Throws IllegalArgumentException if the object does not exist.
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return A stream of the contents of the object, which the caller must close
+     */
+    InputStream open(ObjectId id);
+
+    /** Finds every object whose hash value starts with an abbreviated id
+     *
+     * @param prefix The first hexadecimal digits of a hash value
+     * @return The hash values of the matching objects, in ascending order, which is empty if PREFIX is not hexadecimal
+     */
+    List<ObjectId> resolve(String prefix);
+
+    /** Gets the hash values of every object in the store
+     *
+     * @return The hash values of every object, in ascending order
+     */
+    List<ObjectId> list();
+}
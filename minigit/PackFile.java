@@ -0,0 +1,507 @@
+package minigit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A read-only pack of objects.
+ *
+ *  A pack is made of two files. The .pack file holds every object back to back:
+ *      "MPAK" | version | object count | entry...
+ *  where an entry is either a whole object (FULL | size | deflated contents) or a delta against an earlier entry of
+ *  the same pack (DELTA | offset of the base entry | size | deflated delta), the size being that of the object. Each
+ *  entry is Deflate-compressed like a loose object, and a whole object is inflated as it is streamed out of the pack,
+ *  so it never has to fit in memory; only objects stored as deltas are rebuilt in memory. Version 2 packs store
+ *  entries uncompressed, with an int length in place of the size, and version 1 packs also leave out the type byte.
+ *  The .idx file maps the SHA-1 hash value of every object to its offset in the .pack file, sorted by hash value:
+ *      "MIDX" | version | fan-out table of 256 counts | (20 byte hash | offset)...
+ *  Entry i of the fan-out table is the number of objects whose hash value starts with a byte that is at most i, so a
+ *  lookup only has to binary search the objects that share its first byte.
+ */
+class PackFile implements ObjectStore {
+    static final String PACK_MAGIC = "MPAK";
+    static final String IDX_MAGIC = "MIDX";
+    static final int PACK_VERSION = 3;
+    static final int IDX_VERSION = 1;
+    static final int FULL = 0;
+    static final int DELTA = 1;
+    /** The longest chain of deltas that has to be applied to rebuild an object. */
+    static final int MAX_DEPTH = 10;
+    /** The number of earlier versions of a file that are tried as the base of its delta. */
+    static final int WINDOW = 10;
+    /** The number of bytes of rebuilt delta bases that each pack keeps in memory. */
+    static final long CACHE_BYTES = 32L << 20;
+    /** The size of the largest object that is read into memory to be stored as or used as a delta. Larger objects
+     *  are streamed into the pack whole. */
+    static final int DELTA_LIMIT = 16 << 20;
+    static final int HASH_BYTES = 20;
+    static final int IDX_HEADER = 8 + 256 * 4;
+    static final int IDX_ENTRY = HASH_BYTES + 8;
+
+    private final File pack;
+    private final MappedByteBuffer idx;
+    private final int count;
+    private final int packVersion;
+    private final LinkedHashMap<Long, byte[]> bases = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    /** Opens the pack with the given .idx file, whose .pack file is next to it
+     *
+     * @param idxFile The .idx file of the pack
+     */
+    public PackFile(File idxFile) {
+        String name = idxFile.getName();
+        this.pack = new File(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[4];
+        idx.get(0, magic);
+        if (!new String(magic).equals(IDX_MAGIC) || idx.getInt(4) != IDX_VERSION) {
+            throw new IllegalArgumentException("not a pack index: " + idxFile);
+        }
+        count = idx.getInt(IDX_HEADER - 4);
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(4);
+            packVersion = in.readInt();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Gets the .pack file of this pack
+     *
+     * @return The .pack file
+     */
+    public File getPack() {
+        return pack;
+    }
+
+    @Override
+    public boolean contains(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    @Override
+    public byte[] read(ObjectId id) {
+        int i = find(id);
+        if (i < 0) {
+            throw new IllegalArgumentException("object not in pack: " + id);
+        }
+        long offset = idx.getLong(IDX_HEADER + i * IDX_ENTRY + HASH_BYTES);
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            return readEntry(in, offset);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Reads the entry at an offset of the pack, applying its chain of deltas if it is stored as a delta
+     *
+     * @param in The open .pack file
+     * @param offset The offset of the entry
+     * @return The contents of the object stored at the offset
+     */
+    private byte[] readEntry(RandomAccessFile in, long offset) throws IOException {
+        in.seek(offset);
+        int type = packVersion == 1 ? FULL : in.readByte();
+        long baseOffset = type == DELTA ? in.readLong() : -1;
+        byte[] contents;
+        if (packVersion < 3) {
+            contents = new byte[in.readInt()];
+            in.readFully(contents);
+        } else {
+            in.readLong();
+            // inflates from the channel, which shares the file's position; it is closed along with IN
+            Inflater inflater = new Inflater();
+            try {
+                contents = new InflaterInputStream(new BufferedInputStream(Channels.newInputStream(in.getChannel())),
+                        inflater).readAllBytes();
+            } finally {
+                inflater.end();
+            }
+        }
+        if (type == FULL) {
+            return contents;
+        }
+        byte[] base = cachedBase(baseOffset);
+        if (base == null) {
+            base = readEntry(in, baseOffset);
+            cacheBase(baseOffset, base);
+        }
+        return Delta.apply(base, contents);
+    }
+
+    /** Gets a rebuilt delta base from the cache, or null if it is not cached */
+    private synchronized byte[] cachedBase(long offset) {
+        return bases.get(offset);
+    }
+
+    /** Caches a rebuilt delta base, evicting the least recently used bases once the cache is full */
+    private synchronized void cacheBase(long offset, byte[] base) {
+        if (base.length > CACHE_BYTES || bases.containsKey(offset)) {
+            return;
+        }
+        bases.put(offset, base);
+        cachedBytes += base.length;
+        Iterator<byte[]> it = bases.values().iterator();
+        while (cachedBytes > CACHE_BYTES) {
+            cachedBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /** Opens a stream over the contents of an object. A whole object is inflated straight from the .pack file as the
+     *  stream is read; an object stored as a delta is rebuilt in memory first.
+     */
+    @Override
+    public InputStream open(ObjectId id) {
+        int i = find(id);
+        if (i < 0) {
+            throw new IllegalArgumentException("object not in pack: " + id);
+        }
+        if (packVersion < 3) {
+            return new ByteArrayInputStream(read(id));
+        }
+        long offset = idx.getLong(IDX_HEADER + i * IDX_ENTRY + HASH_BYTES);
+        try {
+            FileChannel channel = FileChannel.open(pack.toPath(), StandardOpenOption.READ);
+            ByteBuffer type = ByteBuffer.allocate(1);
+            channel.read(type, offset);
+            if (type.get(0) != FULL) {
+                channel.close();
+                return new ByteArrayInputStream(read(id));
+            }
+            channel.position(offset + 9);
+            return new InflaterInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Gets the size of an object in this pack without reading its contents
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return The size of the object's contents, in bytes
+     */
+    public long size(ObjectId id) {
+        int i = find(id);
+        if (i < 0) {
+            throw new IllegalArgumentException("object not in pack: " + id);
+        }
+        if (packVersion < 3) { // older packs do not record the size of objects stored as deltas
+            return read(id).length;
+        }
+        long offset = idx.getLong(IDX_HEADER + i * IDX_ENTRY + HASH_BYTES);
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offset);
+            if (in.readByte() == DELTA) {
+                in.readLong();
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public List<ObjectId> list() {
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(idAt(i));
+        }
+        return ids;
+    }
+
+    @Override
+    public List<ObjectId> resolve(String prefix) {
+        List<ObjectId> ids = new ArrayList<>();
+        if (!ObjectId.isValidPrefix(prefix)) {
+            return ids;
+        }
+        for (int i = lowerBound(ObjectId.lowestWithPrefix(prefix)); i < count && idAt(i).startsWith(prefix); i++) {
+            ids.add(idAt(i));
+        }
+        return ids;
+    }
+
+    /** Gets the hash value at a position of the index
+     *
+     * @param i The position in the index
+     * @return The hash value stored there
+     */
+    private ObjectId idAt(int i) {
+        int position = IDX_HEADER + i * IDX_ENTRY;
+        return new ObjectId(idx.getLong(position), idx.getLong(position + 8), idx.getInt(position + 16));
+    }
+
+    /** Binary searches the index for an object
+     *
+     * @param id The SHA-1 hash value of the object
+     * @return The position of the object in the index, or -1 if it is not in this pack
+     */
+    private int find(ObjectId id) {
+        int first = id.firstByte();
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = idx.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = idAt(mid).compareTo(id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Binary searches the index for the first hash value that is not less than a given one, starting from the
+     *  fan-out bucket of its first byte
+     *
+     * @param id The SHA-1 hash value to search for
+     * @return The position of the first hash value not less than ID, which is the number of objects if there is none
+     */
+    private int lowerBound(ObjectId id) {
+        int first = id.firstByte();
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Writes a new pack holding the given objects into a directory. Both files are written under temporary names,
+     *  flushed to the storage device and renamed atomically, the .idx file last, so a pack only becomes visible to
+     *  readers once it is complete; the directory is flushed before this returns, so the pack survives a crash and
+     *  the objects it replaces can be deleted.
+     *
+     *  Objects that are given a filename are grouped with the other versions of the same file and ordered by size,
+     *  and each is stored as a delta against whichever of the WINDOW versions before it gives the smallest delta, as
+     *  long as that keeps delta chains at most MAX_DEPTH long. Every object is read once; objects larger than
+     *  DELTA_LIMIT are streamed into the pack whole instead of being read into memory.
+     *
+     * @param dir The directory to write the pack into
+     * @param source The store to read the objects from
+     * @param ids The SHA-1 hash values of the objects to pack, in ascending order
+     * @param names The filename that each object was committed under, used to pick delta bases
+     * @param sizes Gives the size of each object, or an estimate of it, without reading it
+     * @return The .idx file of the new pack
+     */
+    public static File write(File dir, ObjectStore source, List<ObjectId> ids, Map<ObjectId, String> names,
+                             ToLongFunction<ObjectId> sizes) {
+        dir.mkdirs();
+        byte[] allIds = new byte[ids.size() * HASH_BYTES];
+        for (int i = 0; i < ids.size(); i++) {
+            ids.get(i).copyTo(allIds, i * HASH_BYTES);
+        }
+        String name = "pack-" + Utils.sha1(allIds);
+        File packFile = Utils.join(dir, name + ".pack");
+        File idxFile = Utils.join(dir, name + ".idx");
+        File tmpPack = Utils.join(dir, name + ".pack.tmp");
+        File tmpIdx = Utils.join(dir, name + ".idx.tmp");
+        HashMap<ObjectId, Long> offsets = new HashMap<>();
+        HashMap<ObjectId, Integer> depths = new HashMap<>();
+
+        try (FileChannel channel = FileChannel.open(tmpPack.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeBytes(PACK_MAGIC);
+            out.writeInt(PACK_VERSION);
+            out.writeInt(ids.size());
+            long offset = 12;
+            for (List<ObjectId> group : groupByName(ids, names, sizes)) {
+                ArrayDeque<ObjectId> window = new ArrayDeque<>();
+                ArrayDeque<byte[]> windowContents = new ArrayDeque<>();
+                for (ObjectId id : group) {
+                    offsets.put(id, offset);
+                    byte[] contents;
+                    try (InputStream in = source.open(id)) {
+                        contents = in.readNBytes(DELTA_LIMIT + 1);
+                        if (contents.length > DELTA_LIMIT) { // too large to hold, so its size is filled in after it
+                            out.writeByte(FULL);
+                            out.writeLong(0);
+                            CountingOutputStream entry = new CountingOutputStream(out);
+                            long size = deflate(entry, contents, in);
+                            out.flush();
+                            channel.write(ByteBuffer.allocate(8).putLong(0, size), offset + 1);
+                            offset += 9 + entry.count;
+                            continue;
+                        }
+                    }
+                    ObjectId baseId = null;
+                    byte[] delta = null;
+                    Iterator<byte[]> candidates = windowContents.iterator();
+                    for (ObjectId candidate : window) {
+                        byte[] base = candidates.next();
+                        if (depths.get(candidate) >= MAX_DEPTH) {
+                            continue;
+                        }
+                        byte[] d = Delta.create(base, contents);
+                        if (d.length < contents.length / 2 && (delta == null || d.length < delta.length)) {
+                            baseId = candidate;
+                            delta = d;
+                        }
+                    }
+
+                    CountingOutputStream entry = new CountingOutputStream(out);
+                    if (delta == null) {
+                        depths.put(id, 0);
+                        out.writeByte(FULL);
+                        out.writeLong(contents.length);
+                        deflate(entry, contents, null);
+                        offset += 9 + entry.count;
+                    } else {
+                        depths.put(id, depths.get(baseId) + 1);
+                        out.writeByte(DELTA);
+                        out.writeLong(offsets.get(baseId));
+                        out.writeLong(contents.length);
+                        deflate(entry, delta, null);
+                        offset += 17 + entry.count;
+                    }
+
+                    window.addFirst(id);
+                    windowContents.addFirst(contents);
+                    if (window.size() > WINDOW) {
+                        window.removeLast();
+                        windowContents.removeLast();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        int[] fanout = new int[256];
+        for (ObjectId id : ids) {
+            fanout[id.firstByte()]++;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpIdx.toPath())))) {
+            out.writeBytes(IDX_MAGIC);
+            out.writeInt(IDX_VERSION);
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (ObjectId id : ids) {
+                out.write(id.toBytes());
+                out.writeLong(offsets.get(id));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Utils.fsync(tmpPack);
+        Utils.fsync(tmpIdx);
+        try {
+            Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Utils.fsync(dir);
+        return idxFile;
+    }
+
+    /** Splits objects into groups that hold the versions of one file, each ordered by size. Objects without a
+     *  filename each get a group of their own.
+     *
+     * @param ids The SHA-1 hash values of the objects
+     * @param names The filename of each object
+     * @param sizes Gives the size of each object, or an estimate of it
+     * @return The groups, in the order they should be written
+     */
+    private static List<List<ObjectId>> groupByName(List<ObjectId> ids, Map<ObjectId, String> names,
+                                                    ToLongFunction<ObjectId> sizes) {
+        TreeMap<String, List<ObjectId>> byName = new TreeMap<>();
+        List<List<ObjectId>> groups = new ArrayList<>();
+        for (ObjectId id : ids) {
+            String name = names.get(id);
+            if (name == null) {
+                groups.add(List.of(id));
+            } else {
+                byName.computeIfAbsent(name, k -> new ArrayList<>()).add(id);
+            }
+        }
+        for (List<ObjectId> group : byName.values()) {
+            group.sort(Comparator.comparingLong(sizes));
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /** Deflates HEAD followed by whatever is left of REST, which may be null, onto OUT, leaving OUT open, and returns
+     *  the number of bytes deflated. */
+    private static long deflate(OutputStream out, byte[] head, InputStream rest) throws IOException {
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream d = new DeflaterOutputStream(out, deflater);
+            d.write(head);
+            long size = head.length + (rest == null ? 0 : rest.transferTo(d));
+            d.finish();
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** A stream that counts the bytes written through it to another stream. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -2,10 +2,30 @@ package minigit;
 
 import jdk.jshell.execution.Util;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 
 /** Represents a MiniGit repository.
@@ -13,10 +33,28 @@ import java.util.*;
  */
 public class Repository {
     public static final File MINIGIT_PATH = new File(".minigit");
-    private StagingArea idx = new StagingArea();
+    /** The format version of repositories made by init. Version 0 repositories, which have no version file, store
+     *  loose objects uncompressed in flat directories; version 1 Deflate-compresses them; version 2 also shards them
+     *  into fan-out subdirectories; version 3 stores commits in their own text encoding instead of Java serialization,
+     *  pointing to tree objects that hold their files. The migrate command upgrades a repository to this version. */
+    public static final int FORMAT_VERSION = 3;
+    /** The staging area, which is only read from the index file once a command needs it */
+    private StagingArea idx;
     private File head;
     private File currBranch;
-    private String currBranchVal = "temp";
+    private ObjectId currBranchVal;
+    private int formatVersion = 0;
+    private ObjectDatabase blobStore;
+    private ObjectDatabase commitStore;
+    private ObjectDatabase treeStore;
+    private CommitGraph graph;
+    private MessageIndex messages;
+    private CommitMetadata metadata;
+    private final FileHasher hasher = new FileHasher();
+    /** Commits read by this repository, so that the latest commit and others read more than once are decoded once */
+    private final ObjectCache<Commit> commitCache = new ObjectCache<>(1024);
+    /** The files of trees read by this repository, by the hash value of the top tree */
+    private final ObjectCache<HashMap<String, ObjectId>> treeCache = new ObjectCache<>(16);
 
 
     /** Constructor for Repository class
@@ -26,19 +64,31 @@ public class Repository {
     public Repository() {
         File cb = Utils.join(MINIGIT_PATH, "branches", "currBranch");
         File h = Utils.join(MINIGIT_PATH, "HEAD");
-        File i = Utils.join(MINIGIT_PATH, "index");
+        File v = Utils.join(MINIGIT_PATH, "version");
 
         if(cb.canRead()) {
             currBranch = cb;
-            currBranchVal = Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(cb)));
+            currBranchVal = ObjectId.fromHex(Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(cb))));
         }
 
         if(h.canRead()) {
             head = h;
         }
-        if(i.canRead()) {
-            idx = Utils.readObject(i, StagingArea.class);
+        if(v.canRead()) {
+            formatVersion = Integer.parseInt(Utils.readContentsAsString(v).trim());
         }
+        openObjectStores();
+    }
+
+    /** Opens the blob and commit stores in the layout of the repository's format version
+     */
+    private void openObjectStores() {
+        blobStore = new ObjectDatabase(Utils.join(MINIGIT_PATH, "blobs"), formatVersion >= 1, formatVersion >= 2);
+        commitStore = new ObjectDatabase(Utils.join(MINIGIT_PATH, "commits"), formatVersion >= 1, formatVersion >= 2);
+        treeStore = new ObjectDatabase(Utils.join(MINIGIT_PATH, "trees"), true, true);
+        graph = new CommitGraph(Utils.join(MINIGIT_PATH, "commit-graph"));
+        messages = new MessageIndex(Utils.join(MINIGIT_PATH, "message-index"));
+        metadata = new CommitMetadata(Utils.join(MINIGIT_PATH, "commit-metadata"));
     }
 
 
@@ -53,13 +103,16 @@ public class Repository {
             System.exit(0);
         }
         MINIGIT_PATH.mkdir();
+        formatVersion = FORMAT_VERSION;
+        Utils.writeContents(Utils.join(MINIGIT_PATH, "version"), String.valueOf(formatVersion));
+        openObjectStores();
 
         //creating all directories
-        File blobs = Utils.join(MINIGIT_PATH, "blobs"); // for blobs, using git's method for naming
-        blobs.mkdirs();
+        File blobDir = Utils.join(MINIGIT_PATH, "blobs"); // for blobs, using git's method for naming
+        blobDir.mkdirs();
 
-        File commits = Utils.join(MINIGIT_PATH, "commits"); // for blobs, using git's method for naming
-        commits.mkdirs();
+        File commitDir = Utils.join(MINIGIT_PATH, "commits"); // for blobs, using git's method for naming
+        commitDir.mkdirs();
 
 
         File branches = Utils.join(MINIGIT_PATH, "branches");
@@ -68,84 +121,155 @@ public class Repository {
         head = Utils.join(MINIGIT_PATH, "HEAD");
         currBranch = Utils.join(MINIGIT_PATH, "branches", "currBranch");
 
-        //sets head to its reference and creates main file in branches/
-        try {
-            head.createNewFile();
-            Utils.writeContents(head, "ref: branches/main");
-
-            currBranch.createNewFile();
-            Utils.writeContents(currBranch, Utils.readContentsAsString(head).substring(14));
-        } catch (IOException e) {
-            System.out.println("error in creating head");
-        }
-
         //creates staging area file
         idx = new StagingArea();
-        Utils.join(MINIGIT_PATH, "index");
-        Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
-
-        //creates commit object and updates branches/main to point to the newest commit
-        Commit initial = new Commit("initial commit", null, new HashMap<String, String>());
-        currBranchVal = Utils.sha1(Utils.serialize(initial));
-        Utils.writeContents(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(currBranch)), currBranchVal);
-
-        //writes the initial commit into commits/
-        {
-            String comHash = Utils.sha1(Utils.serialize(initial));
-            String firstTwo = comHash.substring(0, 2);
-
-            File blobDir = Utils.join(MINIGIT_PATH, "commits");
-            blobDir.mkdirs();
-
-            File blobFile = Utils.join(blobDir, comHash);
-            try {
-                blobFile.createNewFile();
-                Utils.writeContents(blobFile, Utils.serialize(initial));
-            } catch (IOException e) {
-                System.out.println("Error in creating commit blob.");
-            }
-        }
+        saveIndex();
+
+        //creates commit object, then sets head to its reference and creates main file in branches/ pointing to it,
+        //writing the three refs together, as a group commit if that is on
+        Commit initial = new Commit("initial commit", 0, null, Tree.write(treeStore, new HashMap<String, ObjectId>()), this::readTree);
+        currBranchVal = writeCommit(initial);
+        Map<File, byte[]> refs = new LinkedHashMap<>();
+        refs.put(head, "ref: branches/main".getBytes(StandardCharsets.UTF_8));
+        refs.put(currBranch, "main".getBytes(StandardCharsets.UTF_8));
+        refs.put(Utils.join(MINIGIT_PATH, "branches", "main"), currBranchVal.toHex().getBytes(StandardCharsets.UTF_8));
+        Utils.writeAll(refs);
+
+        //starts the commit graph and indexes with the initial commit
+        graph.add(currBranchVal, this::readCommit);
+        indexCommit(currBranchVal, initial);
     }
 
 
-    /** Adds a file to MiniGit's staging area.
+    /** Adds files to MiniGit's staging area.
+     *
+     * @param args args[1] onwards are what to add: paths of files or directories, glob patterns that are matched
+     *             against working files as ignore patterns are, or -A or . for the whole working directory
      */
     public void add(String[] args) {
         File given = Utils.join(System.getProperty("user.dir"), args[1]);
-        if(given.exists()) { //does the file exist?
-            if(idx.containsStagedRemove(args[1])) { //is it the staging area, staged for removal?
-                idx.removeFromStageToRemove(args[1]);
-                Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
+        if(args.length > 2 || args[1].equals("-A") || args[1].equals(".") || isGlob(args[1]) || given.isDirectory()) {
+            addAll(Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+        if(given.isFile()) { //does the file exist?
+            if(index().containsStagedRemove(args[1])) { //is it the staging area, staged for removal?
+                index().removeFromStageToRemove(args[1]);
+                saveIndex();
                 return;
             }
             addHelper(given, args[1]);
-            Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
+            saveIndex();
         } else {
             System.out.println("File does not exist.");
             System.exit(1);
         }
     }
 
+    /** Adds many files to the staging area at once. Every file is hashed and stored on a pool of threads, then staged
+     * as add stages a single file, and the index is written once at the end. Adding the whole working directory also
+     * stages the removal of tracked files that were deleted from it, as rm would.
+     *
+     * @param operands What to add, as given to add
+     */
+    private void addAll(List<String> operands) {
+        Set<String> paths = new TreeSet<>();
+        List<String> globs = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+        boolean everything = false;
+        for(String operand: operands) {
+            File given = Utils.join(System.getProperty("user.dir"), operand);
+            if(operand.equals("-A") || operand.equals(".")) {
+                everything = true;
+            } else if(given.isFile()) {
+                paths.add(operand);
+            } else if(given.isDirectory()) {
+                directories.add(operand.endsWith("/") ? operand : operand + "/");
+            } else if(isGlob(operand)) {
+                globs.add(operand);
+            } else {
+                System.out.println("File does not exist.");
+                System.exit(1);
+            }
+        }
+        if(everything || !globs.isEmpty() || !directories.isEmpty()) {
+            boolean all = everything;
+            IgnoreRules selected = new IgnoreRules(globs); // globs are matched the way ignore patterns are
+            try(Stream<String> files = workingFiles()) {
+                files.filter(f -> all || selected.isIgnored(f, false) || directories.stream().anyMatch(f::startsWith))
+                        .forEach(paths::add);
+            }
+        }
+
+        // the tracked files are read once, since adding many files looks up most of them
+        Map<String, ObjectId> tracked = getLatestCommit().getBlobs();
+        if(everything) {
+            for(String filename: tracked.keySet()) {
+                if(!Utils.join(System.getProperty("user.dir"), filename).isFile() && !index().containsStagedRemove(filename)) {
+                    index().removeFromStageToAdd(filename);
+                    index().stageToRemove(filename);
+                }
+            }
+            for(String filename: new ArrayList<>(index().getStagedAddition().keySet())) {
+                if(!Utils.join(System.getProperty("user.dir"), filename).isFile()) {
+                    index().removeFromStageToAdd(filename);
+                }
+            }
+        }
+        List<String> filenames = new ArrayList<>();
+        for(String filename: paths) {
+            if(index().containsStagedRemove(filename)) { // only taken off the removal list, as for a single file
+                index().removeFromStageToRemove(filename);
+            } else {
+                filenames.add(filename);
+            }
+        }
+        for(Map.Entry<String, ObjectId> file: storeWorkingFiles(filenames).entrySet()) {
+            String filename = file.getKey();
+            ObjectId fileHash = file.getValue();
+            if(index().containsStagedAddition(filename)) {
+                if(!index().getFileHash(filename).equals(fileHash)) {
+                    index().removeFromStageToAdd(filename);
+                    index().stageToAdd(filename, fileHash);
+                }
+            } else if(!fileHash.equals(tracked.get(filename))) {
+                index().stageToAdd(filename, fileHash);
+            }
+        }
+        saveIndex();
+    }
+
+    /** Checks if an operand of add is a glob pattern rather than a path
+     *
+     * @param operand The operand
+     * @return whether it has any of the characters that patterns give a meaning to
+     */
+    private boolean isGlob(String operand) {
+        return operand.chars().anyMatch(c -> "*?[".indexOf(c) >= 0);
+    }
+
     /** Helper method for add(), used to simplify reused code
      */
     public void addHelper(File file, String filename) {
-        if(idx.containsStagedAddition(filename)) { // is it in the staging area, staged for addition?
-            if(idx.getFileHash(filename).equals(Utils.sha1(Utils.readContents(file)))) { // is it the same version?
+        ObjectId fileHash = hashWorkingFile(file, filename); // hashed once, then handed to the staging area and blob writer
+        if(index().containsStagedAddition(filename)) { // is it in the staging area, staged for addition?
+            if(index().getFileHash(filename).equals(fileHash)) { // is it the same version?
                 System.exit(2);
             } else { // not in staging area staged for addition
-                idx.removeFromStageToAdd(filename);
-                idx.stageToAdd(file);
-                idx.writeToFile(MINIGIT_PATH, Utils.readContents(file));
+                index().removeFromStageToAdd(filename);
+                index().stageToAdd(filename, fileHash);
+                blobStore.put(fileHash, file);
             }
         } else {
-            if(getLatestCommit().getBlobs().get(filename) != null && getLatestCommit().getBlobs().get(filename).equals(Utils.sha1(Utils.readContents(file)))) { // is it in latest commit & same version?
+            ObjectId latest = trackedBlob(getLatestCommit(), filename); // only reads the trees on the file's path
+            if(latest != null && latest.equals(fileHash)) { // is it in latest commit & same version?
                 return;
-            } else if(getLatestCommit().getBlobs().containsKey(filename)){ // is it in latest commit, not same version?
-                idx.stageToAdd(file);
-                idx.writeToFile(MINIGIT_PATH, Utils.readContents(file)); //this and next case might be the same logic wise, could simplify
+            } else if(latest != null){ // is it in latest commit, not same version?
+                index().stageToAdd(filename, fileHash);
+                blobStore.put(fileHash, file); //this and next case might be the same logic wise, could simplify
             } else { // not in anything, completely brand-new file
-                idx.stageToAdd(file);
-                idx.writeToFile(MINIGIT_PATH, Utils.readContents(file));
+                index().stageToAdd(filename, fileHash);
+                blobStore.put(fileHash, file);
             }
         }
     }
@@ -161,45 +285,46 @@ public class Repository {
             System.exit(4);
         }
 
-        if(idx.getStagedAddition().isEmpty() && idx.getStagedRemove().isEmpty()) {
+        if(index().getStagedAddition().isEmpty() && index().getStagedRemove().isEmpty()) {
             System.out.println("No changes added to the commit.");
             System.exit(5);
         }
 
-        /*
-            gets the most recent commit and the files that it tracked, clones it (because without cloning would be using a reference to the same hashmap in memory),
-            then gets all the new untracked files and puts them into currentBlobs to be set into the new commit
-        */
         Commit acceptedCommit = getLatestCommit();
-        HashMap<String, String> currentBlobs = (HashMap<String, String>) acceptedCommit.getBlobs().clone();
-        ArrayList<String> newFiles = new ArrayList<>(idx.getStagedAddition().keySet());
-        ArrayList<String> removedFiles = idx.getStagedRemove();
-        for (String f: newFiles) {
-            currentBlobs.put(f, idx.getFileHash(f));
-        }
-        for (String f: removedFiles) {
-            currentBlobs.remove(f);
+        Commit com;
+        if(formatVersion >= 3) {
+            // writes only the trees of directories with staged changes, sharing every other tree with the latest commit
+            HashMap<String, ObjectId> changes = new HashMap<>(index().getStagedAddition());
+            for (String f: index().getStagedRemove()) {
+                changes.put(f, null);
+            }
+            ObjectId tree = Tree.update(treeStore, acceptedCommit.getTreeId(), changes);
+            com = new Commit(args[1], System.currentTimeMillis(), this.currBranchVal, tree, this::readTree);
+        } else {
+            /*
+                gets the most recent commit and the files that it tracked, clones it (because without cloning would be using a reference to the same hashmap in memory),
+                then gets all the new untracked files and puts them into currentBlobs to be set into the new commit
+            */
+            HashMap<String, ObjectId> currentBlobs = (HashMap<String, ObjectId>) acceptedCommit.getBlobs().clone();
+            ArrayList<String> newFiles = new ArrayList<>(index().getStagedAddition().keySet());
+            Set<String> removedFiles = index().getStagedRemove();
+            for (String f: newFiles) {
+                currentBlobs.put(f, index().getFileHash(f));
+            }
+            for (String f: removedFiles) {
+                currentBlobs.remove(f);
+            }
+            com = new Commit(args[1], this.currBranchVal, currentBlobs);
         }
 
-        // creates a new commit to be created, creates blobs for the commit, clears staging area and saves it to the file
-        Commit com = new Commit(args[1], this.currBranchVal, currentBlobs);
-        String comHash = Utils.sha1(Utils.serialize(com));
-
-        File blobDir = Utils.join(MINIGIT_PATH, "commits");
-        blobDir.mkdirs();
-
-        File blobFile = Utils.join(blobDir, comHash);
-        try {
-            blobFile.createNewFile();
-            Utils.writeContents(blobFile, Utils.serialize(com));
-            currBranchVal = comHash;
-            Utils.writeContents(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(currBranch)), currBranchVal);
-            idx.clear();
-            Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
-        }
-        catch (IOException e) {
-            System.out.println("Error in creating commit blob.");
-        }
+        // writes the new commit, clears staging area and saves it to the file
+        ObjectId comHash = writeCommit(com);
+        graph.add(comHash, this::readCommit);
+        indexCommit(comHash, com);
+        currBranchVal = comHash;
+        Utils.writeContents(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(currBranch)), currBranchVal.toHex());
+        index().clear();
+        saveIndex();
     }
 
     /** Removes a file the staging area or stages a file to be removed in the next commit.
@@ -209,91 +334,186 @@ public class Repository {
     @SuppressWarnings("unchecked")
     public void rm(String[] args) {
         Commit acceptedCommit = getLatestCommit();
-        HashMap<String, String> currentBlobs = (HashMap<String, String>) acceptedCommit.getBlobs().clone();
+        HashMap<String, ObjectId> currentBlobs = (HashMap<String, ObjectId>) acceptedCommit.getBlobs().clone();
 
-        if(idx.containsStagedAddition(args[1])) { // checking for file being in staging area
-            idx.removeFromStageToAdd(args[1]);
+        if(index().containsStagedAddition(args[1])) { // checking for file being in staging area
+            index().removeFromStageToAdd(args[1]);
 
             if (currentBlobs.containsKey(args[1])) { // checks for file being in staging area and tracked in latest commit
-                idx.stageToRemove(args[1]);
-                Utils.restrictedDelete(args[1]);
+                index().stageToRemove(args[1]);
+                deleteWorkingFile(args[1]);
             }
         } else {                    // checking for if file not being in the staging area, but tracked in latest commit
             if (currentBlobs.containsKey(args[1])) {
-                idx.stageToRemove(args[1]);
-                Utils.restrictedDelete(args[1]);
+                index().stageToRemove(args[1]);
+                deleteWorkingFile(args[1]);
             } else {
                 System.out.println("No reason to remove the file.");
                 System.exit(6);
             }
         }
-        Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
+        saveIndex();
     }
 
     /** Gets information about every commit in the current branch
      *
      * Information includes commit file name (hash value), the date it was created, and its message.
+     * The history is walked one commit at a time through the commit graph, so it can be as deep as it likes, and the
+     * output is buffered and written once at the end.
+     *
+     * @param args Optionally "-n COUNT" to show at most COUNT commits and "--since YYYY-MM-DD" to stop at the first
+     *             commit made before that day
      */
-    public void log() {
-        String latestCommitHash = currBranchVal;
-        Commit latest = getLatestCommit();
-        logHelper(latest, latestCommitHash);
-    }
+    public void log(String[] args) {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        for(int i = 1; i < args.length; i += 2) {
+            if(i + 1 == args.length) {
+                exitWithError("Incorrect operands.");
+            }
+            try {
+                switch (args[i]) {
+                    case "-n" -> limit = Integer.parseInt(args[i + 1]);
+                    case "--since" -> since = LocalDate.parse(args[i + 1])
+                            .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    default -> exitWithError("Incorrect operands.");
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                exitWithError("Incorrect operands.");
+            }
+            if(limit < 0) {
+                exitWithError("Incorrect operands.");
+            }
+        }
 
+        int latest = graph.add(currBranchVal, this::readCommit);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        HistoryWalker walker = new HistoryWalker(graph, latest, limit, since);
+        while(walker.hasNext()) {
+            ObjectId comHash = walker.next();
+            Commit com = readCommit(comHash);
+            printCommit(out, comHash, com.getTimestamp(), com.getMessage());
+        }
+        out.flush();
+    }
 
-    /** Helper method for log()
+    /** Prints a commit the way log and global-log show it
      *
-     * This is called recursively all the back to the initial commit.
+     * @param out The writer to print to
+     * @param comHash The hash value of the commit
+     * @param date The formatted time the commit was made
+     * @param message The message of the commit
      */
-    public void logHelper(Commit com, String comHash) {
-        System.out.println("===");
-        System.out.println("commit " + comHash);
-        System.out.println("Date: " + com.getTimestamp());
-        System.out.println(com.getMessage()+"\n");
-
-        if(com.getParent() == null) {
-            return;
-        }
-        String parentHash = com.getParent();
-        logHelper(Utils.readObject(Utils.join(MINIGIT_PATH, "commits", parentHash), Commit.class) , parentHash);
+    private void printCommit(PrintWriter out, ObjectId comHash, String date, String message) {
+        out.println("===");
+        out.println("commit " + comHash);
+        out.println("Date: " + date);
+        out.println(message+"\n");
     }
 
     /** Gets information about every commit in the repository
      *
      * Information includes commit file name (hash value), the date it was created, and its message.
+     * Commits are shown in order of their hash values. Their dates and messages come from the commit metadata file
+     * when the repository has one, and otherwise the commits are read and decoded on several threads at once while
+     * they are printed in order.
+     *
+     * @param args Optionally "--offset N" to skip the first N commits and "--limit N" to show at most N commits
      */
-    public void globalLog() {
-        File commitsDir = Utils.join(MINIGIT_PATH, "commits");
-        ArrayList<String> allCommits = new ArrayList<>(Utils.plainFilenamesIn(commitsDir));
-        for(String comHash: allCommits) {
-            Commit com = Utils.readObject(Utils.join(commitsDir, comHash), Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + comHash);
-            System.out.println("Date: " + com.getTimestamp());
-            System.out.println(com.getMessage()+"\n");
+    public void globalLog(String[] args) {
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        for(int i = 1; i < args.length; i += 2) {
+            if(i + 1 == args.length) {
+                exitWithError("Incorrect operands.");
+            }
+            try {
+                switch (args[i]) {
+                    case "--offset" -> offset = Integer.parseInt(args[i + 1]);
+                    case "--limit" -> limit = Integer.parseInt(args[i + 1]);
+                    default -> exitWithError("Incorrect operands.");
+                }
+            } catch (NumberFormatException e) {
+                exitWithError("Incorrect operands.");
+            }
+            if(offset < 0 || limit < 0) {
+                exitWithError("Incorrect operands.");
+            }
         }
+
+        List<ObjectId> allCommits = commitStore.list();
+        int from = Math.min(offset, allCommits.size());
+        int to = (int) Math.min((long) from + limit, allCommits.size());
+        boolean useMetadata = metadata.exists();
+        SimpleDateFormat format = new SimpleDateFormat(Commit.DATE_FORMAT);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        forEachInOrder(allCommits.subList(from, to), comHash -> summarize(comHash, useMetadata),
+                (comHash, summary) -> printCommit(out, comHash, format.format(new Date(summary.time())),
+                        summary.message()));
+        out.flush();
     }
 
     /** Finds all commits in the repository that have the inputted commit message
+     *
+     * The commits are looked up in the message index, which is built first if the repository predates it.
      *
      * @param args args[1] is the commit message to find commits with
      */
     public void find(String[] args) {
-        File commitsDir = Utils.join(MINIGIT_PATH, "commits");
-        ArrayList<String> allCommits = new ArrayList<>(Utils.plainFilenamesIn(commitsDir));
-        String output = "";
-        for(String comHash: allCommits) {
-            Commit com = Utils.readObject(Utils.join(commitsDir, comHash), Commit.class);
-            if(com.getMessage().equals(args[1])) {
-                output += comHash +"\n";
-            }
+        if(!messages.exists()) {
+            reindex();
         }
-
-        if (output.isEmpty()) {
+        List<ObjectId> matches = messages.find(args[1]);
+        if (matches.isEmpty()) {
             System.out.println("Found no commit with that message.");
-        } else {
-            System.out.println(output);
+            return;
+        }
+        StringBuilder output = new StringBuilder();
+        for(ObjectId comHash: matches) {
+            output.append(comHash).append('\n');
+        }
+        System.out.println(output);
+    }
+
+    /** Builds the message index and commit metadata file again from every commit in the repository
+     */
+    public void reindex() {
+        List<ObjectId> allCommits = commitStore.list();
+        List<Long> times = new ArrayList<>(allCommits.size());
+        List<String> messages = new ArrayList<>(allCommits.size());
+        forEachInOrder(allCommits, comHash -> summarize(comHash, false), (comHash, summary) -> {
+            times.add(summary.time());
+            messages.add(summary.message());
+        });
+        this.messages.rebuild(allCommits, messages);
+        metadata.rebuild(allCommits, times, messages);
+    }
+
+    /** Checks that the message index and commit metadata file agree with the commits in the repository, printing
+     * every inconsistency found
+     */
+    public void fsck() {
+        List<ObjectId> allCommits = commitStore.list();
+        List<Long> times = new ArrayList<>(allCommits.size());
+        List<String> messages = new ArrayList<>(allCommits.size());
+        forEachInOrder(allCommits, comHash -> summarize(comHash, false), (comHash, summary) -> {
+            times.add(summary.time());
+            messages.add(summary.message());
+        });
+        List<String> problems = new ArrayList<>();
+        problems.addAll(this.messages.exists()
+                ? this.messages.check(allCommits, messages)
+                : List.of("message index is missing"));
+        problems.addAll(metadata.exists()
+                ? metadata.check(allCommits, times, messages)
+                : List.of("commit metadata is missing"));
+        if(problems.isEmpty()) {
+            return;
+        }
+        for(String problem: problems) {
+            System.out.println(problem);
         }
+        exitWithError("Run reindex to rebuild the message index and commit metadata.");
     }
 
     /** Three different cases
@@ -320,101 +540,53 @@ public class Repository {
                 System.exit(8);
             }
 
-            String branchHead = Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", args[1]));
-            Commit checkout = Utils.readObject(Utils.join(MINIGIT_PATH, "commits", branchHead), Commit.class);
+            ObjectId branchHead = ObjectId.fromHex(Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", args[1])));
+            Commit checkout = readCommit(branchHead);
 
-            ArrayList<String> files1 = new ArrayList<String>(Utils.plainFilenamesIn(System.getProperty("user.dir")));
-            List<String> ignoreFiles = new ArrayList<String>(Arrays.asList(".DS_Store", "MiniGitTests.java", "proj1.iml", "readme.md"));
-            for(String filename: ignoreFiles){ // in the way that it is given to test MiniGit, we call from the MiniGit folder, which contains test files and files for the Git repo
-                files1.remove(filename);
-            }
             Commit com = getLatestCommit();
 
-            for(String filename: files1) {
-                File file = Utils.join(System.getProperty("user.dir"), filename);
-                if(!com.getBlobs().containsKey(filename) && checkout.getBlobs().containsValue(Utils.sha1(Utils.readContents(file)))) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(9);
-                }
-            }
-
-            //checks out all files from given branch's head commit
-            HashMap<String, String> blobs = checkout.getBlobs();
-            ArrayList<String> files = new ArrayList<>(blobs.keySet());
-            for(String f: files1) {
-                File checkoutFile = Utils.join(System.getProperty("user.dir"), f);
-                if(!checkout.getBlobs().containsKey(f) && com.getBlobs().containsKey(f)) {
-                    Utils.restrictedDelete(checkoutFile);
-                }
-            }
-
-            for(String filename: files) {
-                String fileHash = blobs.get(filename);
-                byte[] fileContents = Utils.readContents(Utils.join(MINIGIT_PATH, "blobs", fileHash));
-                File newVersion = Utils.join(System.getProperty("user.dir"), filename);
-                Utils.writeContents(newVersion, fileContents);
+            //checks out all files from given branch's head commit, unless an untracked file is in the way
+            if(!checkoutFiles(com, checkout)) {
+                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+                System.exit(9);
             }
 
             // staging area is cleared if the checked out branch is not the current branch
             if(!Utils.readContentsAsString(currBranch).equals(args[1])) {
-                idx.clear();
-                Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
+                index().clear();
             }
+            saveIndex();
 
             // sets given branch to current branch
             Utils.writeContents(currBranch, args[1]);
-            currBranchVal = Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", args[1]));
+            currBranchVal = branchHead;
 
         } else if(args.length == 3) { // gets file from latest commit
-            String fileHash = getLatestCommit().getBlobs().get(args[2]);
-            byte[] fileContents = Utils.readContents(Utils.join(MINIGIT_PATH, "blobs", fileHash));
-            File checkoutFile = Utils.join(System.getProperty("user.dir"), args[2]);
-            if(checkoutFile.exists()){
-                checkoutFile.delete();
-            }
-            File newVersion = Utils.join(System.getProperty("user.dir"), args[2]);
-            Utils.writeContents(newVersion, fileContents);
+            ObjectId fileHash = trackedBlob(getLatestCommit(), args[2]);
+            if(fileHash == null) { // the working file is left alone, since it is not tracked
+                System.out.println("File does not exist in that commit.");
+                System.exit(12);
+            }
+            checkoutBlob(fileHash, Utils.join(System.getProperty("user.dir"), args[2]));
         } else if (args.length == 4){
             if(!args[2].equals("--")) {
                 System.out.println("Incorrect operands.");
                 System.exit(10);
             }
 
-            String commitHash ="";
-            Commit commit = getLatestCommit(); //temp for the try/catch block
-
-            if (args[1].length() < 40) { // case where given commit id is shortened version of the entire commit id
-                ArrayList<String> possCommits = new ArrayList<String>(Utils.plainFilenamesIn(Utils.join(MINIGIT_PATH, "commits")));
-                for(String c: possCommits) {
-                    if (c.contains(args[1])) {
-                        commitHash = c;
-                        break;
-                    }
-                }
-            } else {
-                commitHash = args[1];
-            }
-
-            try {
-                commit = Utils.readObject(Utils.join(MINIGIT_PATH, "commits", commitHash), Commit.class);
-            } catch (IllegalArgumentException e) {
+            ObjectId commitHash = resolveCommit(args[1]); // the given commit id may be shortened
+            if(commitHash == null) {
                 System.out.println("No commit with that id exists.");
                 System.exit(11);
             }
+            Commit commit = readCommit(commitHash);
 
-            if(!commit.getBlobs().containsKey(args[3])) {
+            ObjectId fileHash = trackedBlob(commit, args[3]);
+            if(fileHash == null) {
                 System.out.println("File does not exist in that commit.");
                 System.exit(12);
             }
-
-            String fileHash = commit.getBlobs().get(args[3]);
-            byte[] fileContents = Utils.readContents(Utils.join(MINIGIT_PATH, "blobs", fileHash));
-            File checkoutFile = Utils.join(System.getProperty("user.dir"), args[3]);
-            if(checkoutFile.exists()){
-                checkoutFile.delete();
-            }
-            File newVersion = Utils.join(System.getProperty("user.dir"), args[3]);
-            Utils.writeContents(newVersion, fileContents);
+            checkoutBlob(fileHash, Utils.join(System.getProperty("user.dir"), args[3]));
         }
     }
 
@@ -432,9 +604,8 @@ public class Repository {
 
         File newBranch = Utils.join(MINIGIT_PATH, "branches", args[1]);
         try {
-            newBranch.createNewFile();
-            Utils.writeContents(newBranch, currBranchVal);
-        } catch (IOException e) {
+            Utils.writeContents(newBranch, currBranchVal.toHex());
+        } catch (IllegalArgumentException e) {
             System.out.println("Error in creating new branch.");
         }
     }
@@ -460,54 +631,30 @@ public class Repository {
     /** Gets all files from a given commit and copies them into the current working directory, then changes the head
      * commit of the branch to be the given commit.
      *
-     * @param args args[1] is the name of the file to be removed
+     * @param args args[1] is the id of the commit, which may be abbreviated
      */
     public void reset(String[] args) {
-        Commit checkout = new Commit(null, null, null);
-        try {
-            checkout = Utils.readObject(Utils.join(MINIGIT_PATH, "commits", args[1]), Commit.class);
-        } catch (IllegalArgumentException e) {
+        ObjectId target = resolveCommit(args[1]); // the given commit id may be shortened
+        if(target == null) {
             System.out.println("No commit with that id exists.");
             System.exit(16);
         }
-
-        ArrayList<String> files = new ArrayList<String>(Utils.plainFilenamesIn(System.getProperty("user.dir")));
-        List<String> ignoreFiles = new ArrayList<String>(Arrays.asList(".DS_Store", "MiniGitTests.java", "proj1.iml", "readme.md"));
-        for(String filename: ignoreFiles){ // in the way that it is given to test MiniGit, we call from the MiniGit folder, which contains test files and files for the Git repo
-            files.remove(filename);
-        }
+        Commit checkout = readCommit(target);
+        graph.add(target, this::readCommit);
 
         Commit com = getLatestCommit();
 
-        for(String filename: files) {
-            if(!com.getBlobs().containsKey(filename) && checkout.getBlobs().containsKey(filename)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(17);
-            }
-        }
-
-        //checks out all files from given branch's head commit
-        HashMap<String, String> blobs = checkout.getBlobs();
-        ArrayList<String> files1 = new ArrayList<>(blobs.keySet());
-        for(String file: files) {
-            File checkoutFile = Utils.join(System.getProperty("user.dir"), file);
-            if(!checkout.getBlobs().containsKey(file) && com.getBlobs().containsKey(file)) {
-                Utils.restrictedDelete(checkoutFile);
-            }
-        }
-
-        for(String filename: files1) {
-            String fileHash = blobs.get(filename);
-            byte[] fileContents = Utils.readContents(Utils.join(MINIGIT_PATH, "blobs", fileHash));
-            File newVersion = Utils.join(System.getProperty("user.dir"), filename);
-            Utils.writeContents(newVersion, fileContents);
+        //checks out all files from given branch's head commit, unless an untracked file is in the way
+        if(!checkoutFiles(com, checkout)) {
+            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+            System.exit(17);
         }
 
-        Utils.writeContents(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", "currBranch"))), args[1]);
-        currBranchVal = Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(currBranch)));
+        Utils.writeContents(Utils.join(MINIGIT_PATH, "branches", Utils.readContentsAsString(Utils.join(MINIGIT_PATH, "branches", "currBranch"))), target.toHex());
+        currBranchVal = target;
 
-        idx.clear();
-        Utils.writeObject(Utils.join(MINIGIT_PATH, "index"), idx);
+        index().clear();
+        saveIndex();
     }
 
     /** Gets the name of all the branches that exist, displays the files currently staged for addition and removal,
@@ -515,12 +662,6 @@ public class Repository {
      */
     public void status() {
         List<String> branches = Utils.plainFilenamesIn(Utils.join(MINIGIT_PATH, "branches"));
-        List<String> allFiles = new ArrayList<>(Utils.plainFilenamesIn(System.getProperty("user.dir")));
-
-        List<String> ignoreFiles = new ArrayList<String>(Arrays.asList(".DS_Store", "MiniGitTests.java", "proj1.iml", "readme.md"));
-        for(String filename: ignoreFiles){ // in the way that it is given to test MiniGit, we call from the MiniGit folder, which contains test files and files for the Git repo
-            allFiles.remove(filename);
-        }
 
         System.out.println("=== Branches ===");
         for(String b: branches) {
@@ -534,49 +675,183 @@ public class Repository {
         }
 
         System.out.println("\n=== Staged Files ===");
-        List<String> sortedList = new ArrayList<>(idx.getStagedAddition().keySet());
+        List<String> sortedList = new ArrayList<>(index().getStagedAddition().keySet());
         Collections.sort(sortedList);
         for(String file: sortedList) {
             System.out.println(file);
         }
 
         System.out.println("\n=== Removed Files ===");
-        for(String file: idx.getStagedRemove()) {
+        List<String> sortedRemoved = new ArrayList<>(index().getStagedRemove());
+        Collections.sort(sortedRemoved);
+        for(String file: sortedRemoved) {
             System.out.println(file);
         }
 
+        // the working directory is walked once, sorting each file into the modified and untracked sections as it goes
+        StringBuilder modified = new StringBuilder();
+        StringBuilder untracked = new StringBuilder();
+        Set<String> tracked = new HashSet<>();
+        boolean unreadable = false;
+        HashMap<String, ObjectId> committed = getLatestCommit().getBlobs();
+        try(Stream<String> allFiles = workingFiles()) {
+            for(Iterator<String> it = allFiles.iterator(); it.hasNext(); ) {
+                String filename = it.next();
+                ObjectId staged = index().getFileHash(filename);
+                ObjectId latest = committed.get(filename);
+                if(staged == null && latest == null) { // untracked files are never modified, so need not be hashed
+                    if(!index().containsStagedRemove(filename)) {
+                        untracked.append(filename).append('\n');
+                    }
+                    continue;
+                }
+                tracked.add(filename);
+                if(unreadable) { // no more modifications are reported after a file that cannot be read
+                    continue;
+                }
+                ObjectId current;
+                try {
+                    current = hashWorkingFile(Utils.join(System.getProperty("user.dir"), filename), filename); // only read if its stat data changed
+                } catch (IllegalArgumentException e) { // the file cannot be read
+                    modified.append(filename).append(" (modified)\n");
+                    unreadable = true;
+                    continue;
+                }
+                if(staged != null && !staged.equals(current)) { // if older version of file in staging area
+                    modified.append(filename).append(" (modified)\n");
+                } else if(latest != null && !latest.equals(current) && staged == null) { //if older version of file in latest commit
+                    modified.append(filename).append(" (modified)\n");
+                } else if(!index().containsStagedRemove(filename) && latest != null && !latest.equals(current)) {
+                    modified.append(filename).append(" (modified)\n");
+                }
+            }
+        }
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        for(String filename: allFiles) {
-            File file = Utils.join(System.getProperty("user.dir"), filename);
-            try {
-                Utils.readContents(file);
-            } catch (IllegalArgumentException e) {
-                System.out.println(filename + " (modified)");
-                break;
+        System.out.print(modified);
+
+        System.out.println("\n=== Untracked Files ===");
+        System.out.print(untracked);
+
+        // keeps the hash values computed above so the next status does not have to compute them again
+        index().retainCachedHashes(tracked);
+        if(index().hasCacheChanges()) {
+            saveIndex();
+        }
+    }
+
+    /** Packs the loose blobs and commits of the repository, so that every object lives in a single pack file instead
+     *  of a file of its own. Blobs are grouped by the filename that commits track them under, so that versions of the
+     *  same file can be stored as deltas against each other.
+     */
+    public void repack() {
+        HashMap<ObjectId, String> names = new HashMap<>();
+        for(ObjectId comHash: commitStore.list()) {
+            for(Map.Entry<String, ObjectId> blob: readCommit(comHash).getBlobs().entrySet()) {
+                names.putIfAbsent(blob.getValue(), blob.getKey());
             }
-            if(idx.getStagedAddition().containsKey(filename) && !(idx.getStagedAddition().get(filename).equals(Utils.sha1(Utils.readContents(file))))) { // if older version of file in staging area
-                System.out.println(filename + " (modified)");
-            } else if(getLatestCommit().getBlobs().containsKey(filename) && !getLatestCommit().getBlobs().get(filename).equals(Utils.sha1(Utils.readContents(file))) && !idx.getStagedAddition().containsKey(filename)) { //if older version of file in latest commit
-                System.out.println(filename + " (modified)");
-            } else if(!idx.containsStagedRemove(filename) && getLatestCommit().getBlobs().containsKey(filename) && !getLatestCommit().getBlobs().get(filename).equals(Utils.sha1(Utils.readContents(file)))) {
-                System.out.println(filename + " (modified)");
+        }
+        blobStore.repack(names);
+        commitStore.repack(new HashMap<ObjectId, String>());
+        treeStore.repack(new HashMap<ObjectId, String>());
+    }
+
+    /** Upgrades the repository to the newest format version, compressing its loose objects, moving them into
+     *  fan-out subdirectories and rewriting its commits in the text encoding. The new version is only recorded once
+     *  every object has moved, so an interrupted migration can be finished by running it again.
+     */
+    public void migrate() {
+        if(formatVersion == FORMAT_VERSION) {
+            System.out.println("Repository is already up to date.");
+            return;
+        }
+        ObjectDatabase oldBlobs = blobStore;
+        ObjectDatabase oldCommits = commitStore;
+        boolean serializedCommits = formatVersion < 3;
+        formatVersion = FORMAT_VERSION;
+        openObjectStores();
+        oldBlobs.moveLooseObjectsTo(blobStore);
+        oldCommits.moveLooseObjectsTo(commitStore);
+        if(serializedCommits) {
+            rewriteCommits();
+        }
+        Utils.writeContents(Utils.join(MINIGIT_PATH, "version"), String.valueOf(formatVersion));
+    }
+
+    /** Rewrites every commit in the text encoding, which gives every commit a new hash value. The old commits are
+     * moved aside into commits-old first, and are only deleted once the branches point at the rewritten commits and
+     * the commit graph has been built from them, so running this again after an interruption picks up where it
+     * stopped; rewriting a commit that is already in the text encoding leaves it as it is. The commit graph, message
+     * index and commit metadata are keyed by commit id, so they are built again.
+     */
+    private void rewriteCommits() {
+        File commits = Utils.join(MINIGIT_PATH, "commits");
+        File old = Utils.join(MINIGIT_PATH, "commits-old");
+        if(!old.exists() && !commits.renameTo(old)) {
+            throw Utils.error("Could not move the old commits aside.");
+        }
+        ObjectDatabase oldCommits = new ObjectDatabase(old, true, true);
+        HashMap<ObjectId, ObjectId> rewritten = new HashMap<>();
+        for(ObjectId comHash: oldCommits.list()) {
+            // rewrites the commit after any of its ancestors that have not been rewritten yet, oldest first
+            ArrayDeque<ObjectId> pending = new ArrayDeque<>();
+            ArrayDeque<Commit> pendingCommits = new ArrayDeque<>();
+            for(ObjectId next = comHash; next != null && !rewritten.containsKey(next); ) {
+                Commit com = Commit.decode(oldCommits.read(next), this::readTree);
+                pending.push(next);
+                pendingCommits.push(com);
+                next = com.getParent();
+            }
+            while(!pending.isEmpty()) {
+                Commit com = pendingCommits.pop();
+                ObjectId parent = com.getParent() == null ? null : rewritten.get(com.getParent());
+                rewritten.put(pending.pop(), writeCommit(new Commit(com.getMessage(), com.getTime(), parent,
+                        Tree.write(treeStore, com.getBlobs()), this::readTree)));
             }
         }
 
-        for(String filename: idx.getStagedRemove()) {
-            if(!allFiles.contains(filename) && !idx.getStagedRemove().contains(filename)) {
-                System.out.println(filename + " (deleted)");
+        File branches = Utils.join(MINIGIT_PATH, "branches");
+        List<ObjectId> heads = new ArrayList<>();
+        Map<File, byte[]> refs = new LinkedHashMap<>();
+        for(String branch: Utils.plainFilenamesIn(branches)) {
+            if(branch.equals("currBranch")) {
+                continue;
+            }
+            File ref = Utils.join(branches, branch);
+            ObjectId head = ObjectId.fromHex(Utils.readContentsAsString(ref));
+            if(rewritten.containsKey(head)) { // otherwise an interrupted migration already pointed it at its rewrite
+                head = rewritten.get(head);
+                refs.put(ref, head.toHex().getBytes(StandardCharsets.UTF_8));
             }
+            heads.add(head);
+        }
+        Utils.writeAll(refs); // written last, flushing the branches directory once in group-commit mode
+        if(currBranch != null) {
+            currBranchVal = ObjectId.fromHex(Utils.readContentsAsString(Utils.join(branches, Utils.readContentsAsString(currBranch))));
         }
 
+        Utils.join(MINIGIT_PATH, "commit-graph").delete();
+        Utils.join(MINIGIT_PATH, "message-index").delete();
+        Utils.join(MINIGIT_PATH, "commit-metadata").delete();
+        openObjectStores();
+        for(ObjectId head: heads) {
+            graph.add(head, this::readCommit);
+        }
+        reindex();
+        deleteRecursively(old);
+    }
 
-        System.out.println("\n=== Untracked Files ===");
-        for(String file: allFiles) {
-            if(!getLatestCommit().getBlobs().containsKey(file) && !idx.getStagedAddition().containsKey(file) && !idx.getStagedRemove().contains(file)) {
-                System.out.println(file);
+    /** Deletes a directory and everything in it
+     *
+     * @param dir The directory to delete
+     */
+    private static void deleteRecursively(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for(Path p: paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
             }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
         }
-
     }
 
     public void validateNumArgs(String cmd, String[] args, int n) {
@@ -591,6 +866,12 @@ public class Repository {
         }
     }
 
+    public void validateAtLeast(String cmd, String[] args, int n) {
+        if (args.length < n) {
+            exitWithError("Incorrect operands.");
+        }
+    }
+
     public void validateInit() {
         if (!MINIGIT_PATH.exists()) {
             exitWithError("Not in an initialized MiniGit directory.");
@@ -602,11 +883,413 @@ public class Repository {
         System.exit(18);
     }
 
+    /** Records a new commit in the message index and commit metadata file, building both from every commit instead
+     * if the repository predates them
+     *
+     * @param comHash The hash value of the commit, which has already been written to the commit store
+     * @param com The commit
+     */
+    private void indexCommit(ObjectId comHash, Commit com) {
+        if(messages.exists() && metadata.exists()) {
+            messages.add(com.getMessage(), comHash);
+            metadata.add(comHash, com);
+        } else {
+            reindex();
+        }
+    }
+
+    /** The time and message of a commit, which is all that global-log, find and the indexes need of it. */
+    private record CommitSummary(long time, String message) {
+    }
+
+    /** Gets the time and message of a commit. This is safe to call from several threads at once.
+     *
+     * @param comHash The hash value of the commit
+     * @param useMetadata Whether to look the commit up in the commit metadata file before reading it
+     * @return The time and message of the commit
+     */
+    private CommitSummary summarize(ObjectId comHash, boolean useMetadata) {
+        int record = useMetadata ? metadata.find(comHash) : -1;
+        if(record >= 0) {
+            return new CommitSummary(metadata.timestamp(record), metadata.message(record));
+        }
+        Commit com = readCommit(comHash);
+        return new CommitSummary(com.getTime(), com.getMessage());
+    }
+
+    /** Decodes a list of commits on a pool of threads while handing the results to ACTION one at a time, on this
+     * thread and in the order of the list. Only a few commits per thread are decoded ahead of the one being handed
+     * over, so memory use stays bounded however many commits there are.
+     *
+     * @param ids The hash values of the commits
+     * @param decode Decodes a commit, and must be safe to call from several threads at once
+     * @param action Takes each commit and what it decoded to
+     */
+    private <T> void forEachInOrder(List<ObjectId> ids, Function<ObjectId, T> decode, BiConsumer<ObjectId, T> action) {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), ids.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<T>> window = new ArrayDeque<>();
+        try {
+            int next = 0;
+            for(ObjectId id: ids) {
+                while(next < ids.size() && window.size() < 4 * threads) {
+                    ObjectId toDecode = ids.get(next++);
+                    window.add(pool.submit(() -> decode.apply(toDecode)));
+                }
+                action.accept(id, window.remove().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Finds the commit that a full or abbreviated commit id refers to. The commit store is searched for ids that
+     * start with the given digits, and exits with an error if more than one commit does.
+     *
+     * @param id A commit id, or the first digits of one
+     * @return The full hash value of the commit, or null if no commit has that id
+     */
+    private ObjectId resolveCommit(String id) {
+        List<ObjectId> matches = commitStore.resolve(id);
+        if(matches.size() > 1) {
+            exitWithError("Commit id " + id + " is ambiguous; it matches " + matches.size() + " commits.");
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
     /** Gets the latest commit that the HEAD file points to
      *
      * @return Returns the most recent Commit
      */
     public Commit getLatestCommit() {
-        return Utils.readObject(Utils.join(MINIGIT_PATH, "commits", currBranchVal), Commit.class);
+        return readCommit(currBranchVal);
+    }
+
+    /** Gets the hash value of a file in the working directory, reusing the one cached in the staging area when the
+     * file's stat data shows it has not changed since it was hashed, and caching it otherwise
+     *
+     * @param file The file to hash
+     * @param filename The name of the file in the working directory
+     * @return The SHA-1 hash value of the file's contents
+     */
+    private ObjectId hashWorkingFile(File file, String filename) {
+        IndexEntry stat = IndexEntry.stat(file, null);
+        ObjectId fileHash = index().getCachedHash(filename, stat);
+        if(fileHash == null) {
+            fileHash = hasher.hash(file);
+            index().cacheHash(filename, stat.withId(fileHash));
+        }
+        return fileHash;
+    }
+
+    /** Gets the staging area, reading it from the index file the first time it is needed
+     *
+     * @return The staging area
+     */
+    private StagingArea index() {
+        if(idx == null) {
+            File i = Utils.join(MINIGIT_PATH, "index");
+            idx = i.canRead() ? StagingArea.read(i) : new StagingArea();
+        }
+        return idx;
+    }
+
+    /** Writes the staging area, along with its cached hash values, to the index file
+     */
+    private void saveIndex() {
+        index().write(Utils.join(MINIGIT_PATH, "index"));
+    }
+
+    /** Makes the working files tracked by a commit match it, after moving from another commit. Only the files whose
+     * blob differs between the two commits are written or deleted, along with files removed with rm that the commit
+     * tracks, since the staging area that records their removal is about to be cleared. With tree objects, the files
+     * that differ are found by comparing the two commits' trees, which skips every directory that is the same in both.
+     *
+     * Nothing is changed if a file that would be written is in the working directory but not tracked by the commit
+     * being moved from, since writing it would lose its contents. Only the paths being written are checked, so the
+     * rest of the working directory is neither walked nor read.
+     *
+     * @param from The commit being moved from
+     * @param to The commit being checked out
+     * @return false if an untracked file is in the way, and true once the files have been checked out
+     */
+    private boolean checkoutFiles(Commit from, Commit to) {
+        Map<String, ObjectId> changed;
+        Set<String> added = new HashSet<>(); // the changed files that FROM does not track
+        if(formatVersion >= 3) {
+            changed = Tree.diff(treeStore, from.getTreeId(), to.getTreeId(), added);
+        } else {
+            changed = new HashMap<>();
+            for(Map.Entry<String, ObjectId> blob: to.getBlobs().entrySet()) {
+                ObjectId old = from.getBlobs().get(blob.getKey());
+                if(!blob.getValue().equals(old)) {
+                    changed.put(blob.getKey(), blob.getValue());
+                    if(old == null) {
+                        added.add(blob.getKey());
+                    }
+                }
+            }
+            for(String filename: from.getBlobs().keySet()) {
+                if(!to.getBlobs().containsKey(filename)) {
+                    changed.put(filename, null);
+                }
+            }
+        }
+        // files staged for removal that are not changed are tracked by both commits, so never in the way
+        Set<String> removed = index().getStagedRemove();
+        Map<String, ObjectId> toBlobs = removed.isEmpty() ? Map.of() : to.getBlobs();
+        for(String filename: removed) {
+            ObjectId fileHash = toBlobs.get(filename);
+            if(!changed.containsKey(filename) && fileHash != null) {
+                changed.put(filename, fileHash);
+            }
+        }
+        for(String filename: added) {
+            if(Utils.join(System.getProperty("user.dir"), filename).isFile()) {
+                return false;
+            }
+        }
+
+        Map<String, ObjectId> writes = new HashMap<>();
+        for(Map.Entry<String, ObjectId> change: changed.entrySet()) {
+            if(change.getValue() == null) {
+                deleteWorkingFile(change.getKey());
+            } else {
+                writes.put(change.getKey(), change.getValue());
+            }
+        }
+        writeWorkingFiles(writes);
+        return true;
+    }
+
+    /** Finds the blob that a commit tracks a file with. With tree objects, only the trees of the directories on the
+     * file's path are read, rather than every file of the commit.
+     *
+     * @param com The commit
+     * @param filename The path of the file
+     * @return The hash value of the file's blob, or null if the commit does not track the file
+     */
+    private ObjectId trackedBlob(Commit com, String filename) {
+        if(formatVersion >= 3) {
+            return Tree.lookup(treeStore, com.getTreeId(), filename);
+        }
+        return com.getBlobs().get(filename);
+    }
+
+    /** Copies blobs into files of the working directory on a bounded pool of threads. Once every file has been
+     * written, they are flushed to disk together, followed by the directories holding them, so the flushes overlap
+     * instead of each write waiting for its own. The stat data of each file is then cached with its hash value.
+     *
+     * @param files The hash value of the blob to write to each working file, by path
+     */
+    private void writeWorkingFiles(Map<String, ObjectId> files) {
+        if(files.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = newPool(files.size());
+        try {
+            List<String> filenames = new ArrayList<>(files.keySet());
+            List<Callable<IndexEntry>> writes = new ArrayList<>();
+            Set<File> written = new HashSet<>();
+            for(String filename: filenames) {
+                File file = Utils.join(System.getProperty("user.dir"), filename);
+                ObjectId fileHash = files.get(filename);
+                writes.add(() -> {
+                    checkoutBlob(fileHash, file);
+                    return IndexEntry.stat(file, fileHash);
+                });
+                written.add(file);
+                written.add(file.getAbsoluteFile().getParentFile());
+            }
+            List<IndexEntry> stats = runAll(pool, writes);
+            List<Callable<Void>> syncs = new ArrayList<>();
+            for(File file: written) {
+                syncs.add(() -> {
+                    Utils.fsync(file);
+                    return null;
+                });
+            }
+            runAll(pool, syncs);
+            for(int i = 0; i < filenames.size(); i++) {
+                index().cacheHash(filenames.get(i), stats.get(i));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Hashes working files on a bounded pool of threads, each thread with a hasher of its own, and writes the blob of
+     * every file whose contents the blob store does not have yet. Files whose stat data shows they have not changed
+     * since they were last hashed are not read again, and their hash values are cached otherwise.
+     *
+     * @param filenames The paths of the files
+     * @return The hash value of each file, by path
+     */
+    private Map<String, ObjectId> storeWorkingFiles(List<String> filenames) {
+        Map<String, ObjectId> hashes = new HashMap<>();
+        if(filenames.isEmpty()) {
+            return hashes;
+        }
+        ThreadLocal<FileHasher> hashers = ThreadLocal.withInitial(FileHasher::new);
+        List<IndexEntry> stats = new ArrayList<>();
+        List<Callable<ObjectId>> tasks = new ArrayList<>();
+        for(String filename: filenames) {
+            File file = Utils.join(System.getProperty("user.dir"), filename);
+            IndexEntry stat = IndexEntry.stat(file, null);
+            ObjectId cached = index().getCachedHash(filename, stat);
+            stats.add(cached == null ? stat : null);
+            tasks.add(() -> {
+                ObjectId fileHash = cached != null ? cached : hashers.get().hash(file);
+                blobStore.put(fileHash, file);
+                return fileHash;
+            });
+        }
+        ExecutorService pool = newPool(tasks.size());
+        try {
+            List<ObjectId> ids = runAll(pool, tasks);
+            for(int i = 0; i < filenames.size(); i++) {
+                hashes.put(filenames.get(i), ids.get(i));
+                if(stats.get(i) != null) {
+                    index().cacheHash(filenames.get(i), stats.get(i).withId(ids.get(i)));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return hashes;
+    }
+
+    /** Creates a pool with a thread per processor, but no more threads than there are tasks to run on it
+     *
+     * @param tasks The number of tasks
+     * @return The pool, which must be shut down once the tasks are done
+     */
+    private ExecutorService newPool(int tasks) {
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tasks)));
+    }
+
+    /** Runs tasks on a pool of threads and waits for all of them, rethrowing the first exception that one threw
+     *
+     * @param pool The pool
+     * @param tasks The tasks
+     * @return What each task returned, in the order of the tasks
+     */
+    private <T> List<T> runAll(ExecutorService pool, List<Callable<T>> tasks) {
+        try {
+            List<T> results = new ArrayList<>();
+            for(Future<T> task: pool.invokeAll(tasks)) {
+                results.add(task.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause());
+        }
+    }
+
+    /** Walks the working directory, leaving out the files that its .minigitignore file and the default ignore rules
+     * match
+     *
+     * @return The path of every other working file, in ascending order
+     */
+    private Stream<String> workingFiles() {
+        File dir = new File(System.getProperty("user.dir"));
+        return new WorkingTree(dir, IgnoreRules.read(dir)).files();
+    }
+
+    /** Deletes a working file, along with the directories above it that it leaves empty
+     *
+     * @param filename The path of the file
+     */
+    private void deleteWorkingFile(String filename) {
+        File file = Utils.join(System.getProperty("user.dir"), filename);
+        if(!file.isFile() || !file.delete()) {
+            return;
+        }
+        for(int slash = filename.lastIndexOf('/'); slash > 0; slash = filename.lastIndexOf('/', slash - 1)) {
+            if(!Utils.join(System.getProperty("user.dir"), filename.substring(0, slash)).delete()) { // not empty
+                return;
+            }
+        }
+    }
+
+    /** Copies a blob into a file of the working directory, streaming it so that the blob never has to fit in memory
+     *
+     * @param fileHash The hash value of the blob
+     * @param file The file to write the blob to
+     */
+    private void checkoutBlob(ObjectId fileHash, File file) {
+        file.getParentFile().mkdirs();
+        try (InputStream in = blobStore.open(fileHash)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Reads a commit from the commit store, checking packs before loose objects
+     *
+     * @param comHash The hash value of the commit
+     * @return The commit with the given hash value
+     */
+    public Commit readCommit(ObjectId comHash) {
+        return commitCache.get(comHash, id -> Commit.decode(commitStore.read(id), this::readTree));
+    }
+
+    /** Writes a commit to the commit store in the encoding of the repository's format version. In the text encoding,
+     * the commit's trees must already have been written.
+     *
+     * @param com The commit
+     * @return The hash value of the commit
+     */
+    private ObjectId writeCommit(Commit com) {
+        byte[] comContents;
+        if(formatVersion >= 3) {
+            comContents = com.encode();
+        } else {
+            comContents = Utils.serialize(com);
+        }
+        ObjectId comHash = commitStore.put(comContents);
+        commitCache.put(comHash, com);
+        return comHash;
+    }
+
+    /** Reads the files recorded by a tree object and its subtrees
+     *
+     * @param treeHash The hash value of the tree object
+     * @return The hash value of every file's blob, by path
+     */
+    private HashMap<String, ObjectId> readTree(ObjectId treeHash) {
+        return treeCache.get(treeHash, id -> Tree.read(treeStore, id));
+    }
+
+    /** Gets the cache of commits read by this repository, whose hit and miss counts show how often reading a commit
+     * was saved
+     *
+     * @return The commit cache
+     */
+    public ObjectCache<Commit> getCommitCache() {
+        return commitCache;
+    }
+
+    /** Gets the cache of the files of trees read by this repository
+     *
+     * @return The tree cache
+     */
+    public ObjectCache<HashMap<String, ObjectId>> getTreeCache() {
+        return treeCache;
     }
 }
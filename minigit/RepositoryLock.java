@@ -0,0 +1,134 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** The lock that keeps MiniGit processes working in the same repository from overwriting each other's changes.
+ *
+ *  A command holds the lock from before it reads the refs or the index until it has written the last of them, so an
+ *  update made by one process can never be lost to another that read the state from before it. The lock is an
+ *  operating-system lock on the file .minigit/lock, taken with FileChannel.tryLock; while it is held the file holds
+ *  the process id of its holder, so that a process kept waiting can say who it is waiting for.
+ *
+ *  A process that finds the lock held tries again after a short wait, doubling the wait each time up to a bound and
+ *  adding some randomness so that waiting processes do not all retry at once, and gives up once a timeout has passed.
+ *  Locks cannot go stale: the operating system releases a lock when the process holding it exits, however it exits,
+ *  so a lock file left behind by a process that crashed is not locked, and the next process simply takes it over. The
+ *  file itself is never deleted, since a process could otherwise lock a file that another had just deleted and
+ *  replaced, and both would hold the lock.
+ */
+public class RepositoryLock implements AutoCloseable {
+    /** The name of the lock file, in the .minigit directory */
+    static final String FILENAME = "lock";
+    /** How long a command waits for the lock before giving up, in milliseconds */
+    static final long TIMEOUT_MILLIS = 30000;
+    /** The longest wait between two tries, in milliseconds */
+    private static final long MAX_BACKOFF_MILLIS = 200;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private RepositoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Takes the lock of a repository, waiting for it if another process holds it
+     *
+     * @param dir The .minigit directory of the repository
+     * @param timeoutMillis How long to wait at most, in milliseconds
+     * @return The lock, which must be closed to release it, or null if it was still held by another process once
+     *         the timeout had passed
+     */
+    public static RepositoryLock acquire(File dir, long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        long backoff = 1;
+        while (true) {
+            RepositoryLock held = tryAcquire(new File(dir, FILENAME));
+            if (held != null) {
+                return held;
+            }
+            long left = (deadline - System.nanoTime()) / 1_000_000;
+            if (left <= 0) {
+                return null;
+            }
+            try {
+                Thread.sleep(Math.min(left, backoff + ThreadLocalRandom.current().nextLong(backoff + 1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /** Gets the process holding the lock of a repository, as written in its lock file
+     *
+     * @param dir The .minigit directory of the repository
+     * @return The process id of the holder, or -1 if the lock file names none
+     */
+    public static long holder(File dir) {
+        try {
+            return Long.parseLong(Files.readString(new File(dir, FILENAME).toPath()).trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Releases the lock, first clearing the process id from the lock file
+     */
+    @Override
+    public void close() {
+        try {
+            channel.truncate(0);
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Takes the lock on FILE if no process holds it, writing the id of this process into the file, and returns it,
+     *  or returns null if it is held. */
+    private static RepositoryLock tryAcquire(File file) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            byte[] pid = (ProcessHandle.current().pid() + "\n").getBytes(StandardCharsets.UTF_8);
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(pid), 0);
+            return new RepositoryLock(channel, lock);
+        } catch (OverlappingFileLockException e) { // held by another thread of this process
+            close(channel);
+            return null;
+        } catch (IOException e) {
+            close(channel);
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Closes CHANNEL, if it was opened, releasing any lock taken through it. */
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing was written through it that needs keeping
+            }
+        }
+    }
+}
@@ -2,26 +2,158 @@ package minigit;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class StagingArea implements Serializable {
-    private HashMap<String, String> toAdd;
-    private ArrayList<String> toRemove;
+    /** Pinned so that repositories written by earlier versions of MiniGit stay readable. */
+    private static final long serialVersionUID = 824740844895839538L;
+    private HashMap<String, ObjectId> toAdd;
+    /** The paths staged for removal. A set, so that checking or unstaging one path does not scan the others; callers
+     *  that print the paths sort them first. */
+    private HashSet<String> toRemove;
+    /** The stat data and content hash of working files, so files that have not changed need not be hashed again. */
+    private HashMap<String, IndexEntry> stats;
+    /** The modification time of the index file when this staging area was read from it, in nanoseconds. */
+    private transient long writtenAt;
+    private transient boolean statsChanged;
+    /** The index file this staging area was read from, or null if it was not read from one in the current format */
+    private transient IndexFile source;
+    /** Whether every entry of the index file has been read. Until then, entries are read one path at a time as they
+     *  are needed. */
+    private transient boolean complete;
+    /** The paths whose entries have been read from the index file so far */
+    private transient Set<String> fetched;
+    /** The paths whose entries have changed since the staging area was read or written */
+    private transient Set<String> changed;
 
     public StagingArea() {
-        toAdd = new HashMap<String, String>();
-        toRemove = new ArrayList<String>();
+        toAdd = new HashMap<String, ObjectId>();
+        toRemove = new HashSet<String>();
+        stats = new HashMap<String, IndexEntry>();
+        complete = true;
+        fetched = new HashSet<String>();
+        changed = new HashSet<String>();
+    }
+
+    /** Reads the staging area from the index file. An index file in the current format is only mapped into memory,
+     *  and its entries are read as they are needed; one serialized by earlier versions of MiniGit is read whole, and
+     *  is written in the current format the next time the staging area is written.
+     *
+     * @param file The index file
+     * @return The staging area stored in the file
+     */
+    public static StagingArea read(File file) {
+        StagingArea idx;
+        if (IndexFile.isIndexFile(file)) {
+            idx = new StagingArea();
+            idx.source = new IndexFile(file);
+            idx.complete = false;
+        } else {
+            idx = Utils.readObject(file, StagingArea.class);
+        }
+        idx.writtenAt = modificationTime(file);
+        return idx;
+    }
+
+    /** Writes the staging area to the index file, replacing it atomically. When only the entries of paths already in
+     *  the file have changed, the new file copies the others from the old one instead of encoding them again.
+     *
+     *  A file that changed in the same tick of the file system clock as the index was written can keep its old stat
+     *  data, so cached hashes are only trusted for files last modified before the index was written. Entries for
+     *  files modified at or after the time of this write are dropped, and the index is written again without them,
+     *  so that they are not trusted by mistake once a later write moves the index's time forward.
+     *
+     * @param file The index file
+     */
+    public void write(File file) {
+        Set<String> written = changed;
+        save(file);
+        writtenAt = modificationTime(file);
+        for (String filename : written) {
+            IndexEntry entry = stats.get(filename);
+            if (entry != null && entry.getMtime() >= writtenAt) {
+                stats.remove(filename);
+                changed.add(filename);
+            }
+        }
+        if (!changed.isEmpty()) {
+            save(file);
+            writtenAt = modificationTime(file);
+        }
+        statsChanged = false;
+    }
+
+    /** Gets the cached hash value of a working file, if the file has not changed since it was hashed
+     *
+     * @param filename The name of the file
+     * @param stat The current stat data of the file
+     * @return The hash value of the file's contents, or null if it has to be hashed again
+     */
+    public ObjectId getCachedHash(String filename, IndexEntry stat) {
+        fetch(filename);
+        IndexEntry cached = stats.get(filename);
+        if (cached == null || !cached.sameStat(stat) || cached.getMtime() >= writtenAt) {
+            return null;
+        }
+        return cached.getId();
+    }
+
+    /** Records the stat data and hash value of a working file
+     *
+     * @param filename The name of the file
+     * @param entry The stat data of the file, with the hash value of its contents
+     */
+    public void cacheHash(String filename, IndexEntry entry) {
+        fetch(filename);
+        stats.put(filename, entry);
+        changed.add(filename);
+        statsChanged = true;
+    }
+
+    /** Forgets the cached hash values of every file but some, such as files no longer in the working directory
+     *
+     * @param filenames The names of the files whose hash values are kept
+     */
+    public void retainCachedHashes(Collection<String> filenames) {
+        fetchAll();
+        Set<String> present = new HashSet<>(filenames);
+        for (String filename : new ArrayList<>(stats.keySet())) {
+            if (!present.contains(filename)) {
+                stats.remove(filename);
+                changed.add(filename);
+                statsChanged = true;
+            }
+        }
+    }
+
+    /** Checks if hash values have been cached or forgotten since the staging area was read or written
+     *
+     * @return whether the staging area should be written to keep the changes
+     */
+    public boolean hasCacheChanges() {
+        return statsChanged;
     }
 
     /** Adds a filename and its hash value to the staging area
      *
-     * @param x The File object to be added
+     * @param filename The filename to be added
+     * @param fileHash The SHA-1 hash value of the file's contents
      */
-    public void stageToAdd(File x) {
-        toAdd.put(x.getName(), Utils.sha1(Utils.readContents(x)));
+    public void stageToAdd(String filename, ObjectId fileHash) {
+        fetch(filename);
+        changed.add(filename);
+        toAdd.put(filename, fileHash);
     }
 
     /** Removes a single element from the toAdd Hashmap
@@ -31,15 +163,19 @@ public class StagingArea implements Serializable {
      */
     //
     public boolean removeFromStageToAdd(String key) {
+        fetch(key);
+        changed.add(key);
         return toAdd.remove(key) != null;
     }
 
-    /** Removes a single element from the toRemove ArrayList
+    /** Removes a single element from the toRemove set
      *
      * @param key The filename to be removed
      * @return whether the file was in the staging area, staged for removed
      */
     public boolean removeFromStageToRemove(String key) {
+        fetch(key);
+        changed.add(key);
         return toRemove.remove(key);
     }
 
@@ -48,6 +184,8 @@ public class StagingArea implements Serializable {
      * @param filename The filename to be staged to removed
      */
     public void stageToRemove(String filename) {
+        fetch(filename);
+        changed.add(filename);
         toRemove.add(filename);
     }
 
@@ -57,16 +195,18 @@ public class StagingArea implements Serializable {
      * @return whether the file exists in the toAdd hashmap
      */
     public boolean containsStagedAddition(String val) {
+        fetch(val);
         return toAdd.containsKey(val);
     }
 
-    /** Checks if a filename exists in the toRemove ArrayList
+    /** Checks if a filename exists in the toRemove set
      *
      * @param val The filename to check for
-     * @return whether the file exists in the toRemove ArrayList
+     * @return whether the file exists in the toRemove set
      */
     //
     public boolean containsStagedRemove(String val) {
+        fetch(val);
         return toRemove.contains(val);
     }
 
@@ -75,15 +215,19 @@ public class StagingArea implements Serializable {
      * @param filename The filename to search for
      * @return the SHA-1 hash value
      */
-    public String getFileHash(String filename) {
+    public ObjectId getFileHash(String filename) {
+        fetch(filename);
         return toAdd.get(filename);
     }
 
-    /** Clears the staging area
+    /** Clears the staging area. The cached hash values of working files are kept.
      */
     public void clear() {
-        toAdd = new HashMap<String, String>();
-        toRemove = new ArrayList<String>();
+        fetchAll();
+        changed.addAll(toAdd.keySet());
+        changed.addAll(toRemove);
+        toAdd = new HashMap<String, ObjectId>();
+        toRemove = new HashSet<String>();
     }
 
     /** Returns the entire addition staging area as a hashmap
@@ -91,41 +235,112 @@ public class StagingArea implements Serializable {
      * @return The addition staging area
      */
     //
-    public HashMap<String, String> getStagedAddition() {
+    public HashMap<String, ObjectId> getStagedAddition() {
+        fetchAll();
         return toAdd;
     }
 
-    /** Returns the entire removal staging area as a hashmap
+    /** Returns the entire removal staging area as a set, in no particular order
      *
      * @return The removal staging area
      */
-    //returns the entire remove staging area as an arraylist
-    public ArrayList<String> getStagedRemove() {
+    public HashSet<String> getStagedRemove() {
+        fetchAll();
         return toRemove;
     }
 
-    /** Writes a contents of an object to a file in minigit/blobs/, where the filename is the files SHA-1 Hash value
-     *
-     * @param startPath the path for the MiniGit repository
-     * @param fileContents The contents of the file to write
+    /** Reads a serialized staging area. Staging areas written before ObjectId existed hold their hash values as
+     *  Strings, so those are converted as they are read, and ones written before the stat cache existed start with
+     *  an empty one. The paths staged for removal were held in a list before they were held in a set, so either is
+     *  accepted.
      */
-    //writes the files in the staging area as blobs in objects/
-    public void writeToFile(File startPath, byte[] fileContents) {
-        Set<String> keys = toAdd.keySet();
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        toRemove = new HashSet<String>((Collection<String>) fields.get("toRemove", null));
+        toAdd = new HashMap<String, ObjectId>();
+        HashMap<?, ?> stored = (HashMap<?, ?>) fields.get("toAdd", null);
+        for (Map.Entry<?, ?> entry : stored.entrySet()) {
+            toAdd.put((String) entry.getKey(), ObjectId.fromStored(entry.getValue()));
+        }
+        stats = (HashMap<String, IndexEntry>) fields.get("stats", null);
+        if (stats == null) { // staging areas written before the stat cache existed have none
+            stats = new HashMap<String, IndexEntry>();
+        }
+        complete = true;
+        fetched = new HashSet<String>();
+        changed = new HashSet<String>();
+    }
 
-        for(String key: keys) {
-            File blobDir = Utils.join(startPath, "blobs");
-            blobDir.mkdirs();
+    /** Writes the entries of the paths that changed to FILE, encoding the whole file unless they can replace their
+     *  old entries in a copy of it. */
+    private void save(File file) {
+        if (source != null && source.update(changed, this::flags, toAdd::get, stats::get)) {
+            source = new IndexFile(file);
+        } else {
+            fetchAll();
+            Set<String> union = new HashSet<>(stats.keySet());
+            union.addAll(toAdd.keySet());
+            union.addAll(toRemove);
+            List<String> paths = new ArrayList<>(union);
+            Collections.sort(paths);
+            IndexFile.write(file, paths, this::flags, toAdd::get, stats::get);
+            source = new IndexFile(file);
+        }
+        changed = new HashSet<String>();
+    }
 
-            File blobFile = Utils.join(blobDir, toAdd.get(key));
-        try {
-            blobFile.createNewFile();
-            Utils.writeContents(blobFile, fileContents);
+    /** Reads the entry of FILENAME from the index file, unless it has been read already. */
+    private void fetch(String filename) {
+        if (!complete && fetched.add(filename)) {
+            int position = source.find(filename);
+            if (position >= 0) {
+                fetch(filename, position);
             }
-        catch (IOException e) {
-            System.out.println("Error in creating staging area blob.");
+        }
+    }
+
+    /** Reads every entry of the index file that has not been read yet. */
+    private void fetchAll() {
+        if (!complete) {
+            for (int i = 0; i < source.size(); i++) {
+                String filename = source.path(i);
+                if (fetched.isEmpty() || !fetched.contains(filename)) {
+                    fetch(filename, i);
+                }
             }
+            complete = true;
+            fetched = null;
         }
+    }
 
+    /** Reads the entry of FILENAME at POSITION of the index file into the staging area. */
+    private void fetch(String filename, int position) {
+        int flags = source.flags(position);
+        if ((flags & IndexFile.STAGED_ADD) != 0) {
+            toAdd.put(filename, source.staged(position));
+        }
+        if ((flags & IndexFile.STAGED_REMOVE) != 0) {
+            toRemove.add(filename);
+        }
+        if ((flags & IndexFile.CACHED) != 0) {
+            stats.put(filename, source.cached(position));
+        }
+    }
+
+    /** Returns the flags of the index file entry of FILENAME. */
+    private int flags(String filename) {
+        return (toAdd.containsKey(filename) ? IndexFile.STAGED_ADD : 0)
+                | (toRemove.contains(filename) ? IndexFile.STAGED_REMOVE : 0)
+                | (stats.containsKey(filename) ? IndexFile.CACHED : 0);
+    }
+
+    /** Returns the modification time of FILE in nanoseconds since the epoch. */
+    private static long modificationTime(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 }
@@ -0,0 +1,220 @@
+package minigit;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Tree objects, which record the files tracked by a commit so that commits only have to point to them.
+ *
+ *  A tree holds the files and subdirectories of one directory, one entry each, in ascending order of name:
+ *      (UTF-8 name | 0 | SHA-1 hash value of the blob or subtree)...
+ *  The name of a subdirectory ends with a slash, which no filename does, and its entry points to the tree of that
+ *  subdirectory. Names never contain a zero byte, so the entries need no other framing. Trees are content-addressed,
+ *  so a directory whose files did not change between two commits has the same tree in both and is stored once: making
+ *  a commit only writes the trees of the directories on the paths that changed, and comparing two commits skips every
+ *  subtree whose hash value is the same in both.
+ */
+public class Tree {
+    private Tree() {
+    }
+
+    /** Encodes the entries of one directory as a tree object
+     *
+     * @param entries The hash value of every blob or subtree in the directory, by name
+     * @return The contents of the tree object
+     */
+    public static byte[] encode(Map<String, ObjectId> entries) {
+        String[] names = entries.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(names.length * (ObjectId.BYTES + 16));
+        for (String name : names) {
+            out.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(entries.get(name).toBytes());
+        }
+        return out.toByteArray();
+    }
+
+    /** Decodes a tree object
+     *
+     * @param contents The contents of the tree object
+     * @return The hash value of every blob or subtree in the directory, by name
+     */
+    public static HashMap<String, ObjectId> decode(byte[] contents) {
+        HashMap<String, ObjectId> entries = new HashMap<>();
+        int start = 0;
+        while (start < contents.length) {
+            int end = start;
+            while (end < contents.length && contents[end] != 0) {
+                end++;
+            }
+            if (end + 1 + ObjectId.BYTES > contents.length) {
+                throw new IllegalArgumentException("tree object is truncated");
+            }
+            String name = new String(contents, start, end - start, StandardCharsets.UTF_8);
+            entries.put(name, ObjectId.fromBytes(contents, end + 1));
+            start = end + 1 + ObjectId.BYTES;
+        }
+        return entries;
+    }
+
+    /** Reads every file recorded by a tree and its subtrees
+     *
+     * @param trees The tree store
+     * @param tree The hash value of the tree
+     * @return The hash value of every file's blob, by path
+     */
+    public static HashMap<String, ObjectId> read(ObjectStore trees, ObjectId tree) {
+        HashMap<String, ObjectId> files = new HashMap<>();
+        readInto(trees, tree, "", files);
+        return files;
+    }
+
+    /** Finds the blob of one file in a tree, reading only the trees of the directories on its path
+     *
+     * @param trees The tree store
+     * @param tree The hash value of the tree
+     * @param path The path of the file
+     * @return The hash value of the file's blob, or null if the tree has no such file
+     */
+    public static ObjectId lookup(ObjectStore trees, ObjectId tree, String path) {
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', start)) {
+            tree = decode(trees.read(tree)).get(path.substring(start, slash + 1));
+            if (tree == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        return decode(trees.read(tree)).get(path.substring(start));
+    }
+
+    /** Writes the trees of a set of files
+     *
+     * @param trees The tree store
+     * @param files The hash value of every file's blob, by path
+     * @return The hash value of the top tree
+     */
+    public static ObjectId write(ObjectDatabase trees, Map<String, ObjectId> files) {
+        return update(trees, null, files);
+    }
+
+    /** Writes the trees of a tree with some of its files changed. Only the trees of directories that hold a changed
+     *  file are read and written again; every other subtree is kept by its hash value.
+     *
+     * @param trees The tree store
+     * @param tree The hash value of the tree to change, or null to start from an empty one
+     * @param changes The new hash value of every changed file's blob by path, or null for files that were removed
+     * @return The hash value of the changed top tree
+     */
+    public static ObjectId update(ObjectDatabase trees, ObjectId tree, Map<String, ObjectId> changes) {
+        return store(trees, updateEntries(trees, tree, changes));
+    }
+
+    /** Finds the files that differ between two trees, without reading subtrees that are the same in both
+     *
+     * @param trees The tree store
+     * @param from The hash value of one tree
+     * @param to The hash value of the other tree
+     * @return The hash value of every file's blob in TO by path, or null for files only in FROM, for the files that
+     *         are in only one of the trees or have different blobs in each
+     */
+    public static Map<String, ObjectId> diff(ObjectStore trees, ObjectId from, ObjectId to) {
+        return diff(trees, from, to, null);
+    }
+
+    /** Finds the files that differ between two trees as diff(TREES, FROM, TO) does, also collecting the ones that are
+     *  only in TO, so that callers need not look each one up in FROM
+     *
+     * @param trees The tree store
+     * @param from The hash value of one tree
+     * @param to The hash value of the other tree
+     * @param added The set to add the paths of the files only in TO to, or null
+     * @return The hash value of every file's blob in TO by path, or null for files only in FROM, for the files that
+     *         are in only one of the trees or have different blobs in each
+     */
+    public static Map<String, ObjectId> diff(ObjectStore trees, ObjectId from, ObjectId to, Set<String> added) {
+        Map<String, ObjectId> changed = new HashMap<>();
+        diffInto(trees, from, to, "", changed, added);
+        return changed;
+    }
+
+    /** Adds the files of TREE and its subtrees in TREES to FILES, with PREFIX before their names. */
+    private static void readInto(ObjectStore trees, ObjectId tree, String prefix, Map<String, ObjectId> files) {
+        for (Map.Entry<String, ObjectId> entry : decode(trees.read(tree)).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                readInto(trees, entry.getValue(), prefix + entry.getKey(), files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Returns the entries of TREE with CHANGES made to the files under it, writing the changed subtrees to TREES. */
+    private static Map<String, ObjectId> updateEntries(ObjectDatabase trees, ObjectId tree,
+                                                       Map<String, ObjectId> changes) {
+        Map<String, ObjectId> entries = tree == null ? new HashMap<>() : decode(trees.read(tree));
+        Map<String, Map<String, ObjectId>> subdirectories = new HashMap<>();
+        for (Map.Entry<String, ObjectId> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirectories.computeIfAbsent(path.substring(0, slash + 1), name -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, ObjectId>> subdirectory : subdirectories.entrySet()) {
+            String name = subdirectory.getKey();
+            Map<String, ObjectId> subtree = updateEntries(trees, entries.get(name), subdirectory.getValue());
+            if (subtree.isEmpty()) { // directories without files are not recorded
+                entries.remove(name);
+            } else {
+                entries.put(name, store(trees, subtree));
+            }
+        }
+        return entries;
+    }
+
+    /** Writes the tree holding ENTRIES to TREES unless it is there already, and returns its hash value. */
+    private static ObjectId store(ObjectDatabase trees, Map<String, ObjectId> entries) {
+        return trees.put(encode(entries));
+    }
+
+    /** Adds the files that differ between trees FROM and TO in TREES to CHANGED, with PREFIX before their names and
+     *  their blob in TO, and the ones only in TO to ADDED unless it is null. Either tree may be null, for a directory
+     *  that only exists on one side. */
+    private static void diffInto(ObjectStore trees, ObjectId from, ObjectId to, String prefix,
+                                 Map<String, ObjectId> changed, Set<String> added) {
+        if (Objects.equals(from, to)) { // the same tree, so nothing under it differs
+            return;
+        }
+        Map<String, ObjectId> before = from == null ? Map.of() : decode(trees.read(from));
+        Map<String, ObjectId> after = to == null ? Map.of() : decode(trees.read(to));
+        Set<String> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            ObjectId a = before.get(name);
+            ObjectId b = after.get(name);
+            if (Objects.equals(a, b)) {
+                continue;
+            }
+            if (name.endsWith("/")) {
+                diffInto(trees, a, b, prefix + name, changed, added);
+            } else {
+                changed.put(prefix + name, b);
+                if (a == null && added != null) {
+                    added.add(prefix + name);
+                }
+            }
+        }
+    }
+}
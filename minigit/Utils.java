@@ -1,6 +1,7 @@
 package minigit;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,14 +10,24 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /** Assorted utilities.
@@ -31,6 +42,12 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Whether writeAll batches the flushes of the files it writes (group
+     *  commit), turned on by running with -Dminigit.groupCommit=true.  Off
+     *  by default, so that files written together are made durable in
+     *  order. */
+    static final boolean GROUP_COMMIT = Boolean.getBoolean("minigit.groupCommit");
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
@@ -47,16 +64,23 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns BYTES as a hexadecimal numeral, two digits per byte, looking
+     *  each digit up in a table rather than going through a Formatter. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = ObjectId.HEX_DIGITS.charAt((bytes[i] >> 4) & 0xf);
+            result[2 * i + 1] = ObjectId.HEX_DIGITS.charAt(bytes[i] & 0xf);
+        }
+        return new String(result);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -113,27 +137,116 @@ class Utils {
 
     /** Write the result of concatenating the bytes in CONTENTS to FILE,
      *  creating or overwriting it as needed.  Each object in CONTENTS may be
-     *  either a String or a byte array.  Throws IllegalArgumentException
-     *  in case of problems. */
+     *  either a String or a byte array.  FILE is replaced atomically: the
+     *  contents are written to a temporary file beside it, flushed to the
+     *  storage device and renamed over it, so that after a crash FILE holds
+     *  either its old contents or its new ones, never part of either.
+     *  Throws IllegalArgumentException in case of problems. */
     static void writeContents(File file, Object... contents) {
+        writeAll(Map.of(file, concat(contents)), true);
+    }
+
+    /** Write each of FILES, given by file and contents, replacing each one
+     *  atomically as writeContents does, in group-commit mode if it is on.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeAll(Map<File, byte[]> files) {
+        writeAll(files, GROUP_COMMIT);
+    }
+
+    /** Write each of FILES, given by file and contents, replacing each one
+     *  atomically as writeContents does.  Unless GROUP is true the files
+     *  are written one after another in the order FILES gives them, each
+     *  flushed with its directory before the next is started, so after a
+     *  crash the files holding new contents are always the first ones.  In
+     *  group-commit mode every temporary file is written before any is
+     *  flushed, and each directory is flushed once after every file has
+     *  been renamed into it, rather than once per file: after a crash each
+     *  file still holds its old or its new contents, but any of them may
+     *  hold old ones while others hold new.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeAll(Map<File, byte[]> files, boolean group) {
+        if (!group && files.size() > 1) {
+            for (Map.Entry<File, byte[]> file : files.entrySet()) {
+                writeAll(Map.of(file.getKey(), file.getValue()), true);
+            }
+            return;
+        }
+        Map<File, Path> temps = new LinkedHashMap<>();
         try {
-            if (file.isDirectory()) {
-                throw
-                    new IllegalArgumentException("cannot overwrite directory");
+            for (Map.Entry<File, byte[]> file : files.entrySet()) {
+                if (file.getKey().isDirectory()) {
+                    throw
+                        new IllegalArgumentException("cannot overwrite directory");
+                }
+                Path tmp = createTempBeside(file.getKey());
+                temps.put(file.getKey(), tmp);
+                Files.write(tmp, file.getValue());
+            }
+            for (Path tmp : temps.values()) {
+                fsync(tmp.toFile());
+            }
+            Set<File> dirs = new LinkedHashSet<>();
+            for (Map.Entry<File, Path> tmp : temps.entrySet()) {
+                Files.move(tmp.getValue(), tmp.getKey().toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                dirs.add(tmp.getKey().getAbsoluteFile().getParentFile());
+            }
+            temps.clear();
+            for (File dir : dirs) {
+                fsync(dir);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        } finally {
+            for (Path tmp : temps.values()) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // the temporary file is hidden, so leaving it is harmless
+                }
+            }
+        }
+    }
+
+    /** Create an empty hidden temporary file beside FILE, to be renamed
+     *  over it.  Files.createTempFile makes files only their owner can
+     *  read, so the file is created with the default permissions of a new
+     *  file instead, and given those of FILE if FILE already exists. */
+    static Path createTempBeside(File file) throws IOException {
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        while (true) {
+            Path tmp = dir.resolve("." + file.getName() + "-"
+                + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(tmp);
+            } catch (FileAlreadyExistsException excp) {
+                continue;
+            }
+            if (file.exists()
+                && FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(file.toPath()));
             }
-            BufferedOutputStream str =
-                new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            return tmp;
+        }
+    }
+
+    /** Return the concatenation of CONTENTS, each of which may be either a
+     *  String or a byte array.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static byte[] concat(Object... contents) {
+        ByteArrayOutputStream str = new ByteArrayOutputStream();
+        try {
             for (Object obj : contents) {
                 if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
+                    str.writeBytes((byte[]) obj);
                 } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                    str.writeBytes(((String) obj).getBytes(StandardCharsets.UTF_8));
                 }
             }
-            str.close();
-        } catch (IOException | ClassCastException excp) {
+        } catch (ClassCastException excp) {
             throw new IllegalArgumentException(excp);
         }
+        return str.toByteArray();
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
@@ -142,7 +255,24 @@ class Utils {
                                                  Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Return an object of type T deserialized from the bytes in CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -159,12 +289,17 @@ class Utils {
 
     /* DIRECTORIES */
 
-    /** Filter out all but plain files. */
+    /** The names of the temporary files createTempBeside makes, which
+     *  writeAll leaves behind if it is interrupted. */
+    static final String TEMP_FILE_NAME = "\\..+-[0-9]+\\.tmp";
+
+    /** Filter out all but plain files, and the temporary files writeAll
+     *  leaves behind if it is interrupted. */
     private static final FilenameFilter PLAIN_FILES =
         new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                return new File(dir, name).isFile();
+                return !name.matches(TEMP_FILE_NAME) && new File(dir, name).isFile();
             }
         };
 
@@ -204,6 +339,20 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /** Flushes FILE, which may be a directory, to the storage device so
+     *  that what was written to it survives a crash.  Some systems cannot
+     *  open directories, so there they are left as they are.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void fsync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp);
+            }
+        }
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -0,0 +1,165 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** The files of a working directory and all of its subdirectories, apart from the .minigit directory and whatever its
+ *  ignore rules leave out.
+ *
+ *  Files are named by their path relative to the working directory, with a slash between directories, and are produced
+ *  in ascending order of path, the same order that tree objects use. The walk is depth-first, and directories are
+ *  listed on a pool of threads ahead of it: entering a directory starts listing each of its subdirectories, so the
+ *  listing of a subdirectory is usually done by the time the walk reaches it, while only the subdirectories of the
+ *  directories currently being walked are ever listed ahead. Ignored directories are dropped from the listing of the
+ *  directory holding them, so they are never listed at all.
+ */
+public class WorkingTree {
+    private final Path root;
+    private final IgnoreRules ignore;
+
+    /** Constructor for the WorkingTree class, for a working tree that ignores nothing
+     *
+     * @param root The working directory
+     */
+    public WorkingTree(File root) {
+        this(root, new IgnoreRules(List.of()));
+    }
+
+    /** Constructor for the WorkingTree class
+     *
+     * @param root The working directory
+     * @param ignore The rules saying which files and directories to leave out
+     */
+    public WorkingTree(File root, IgnoreRules ignore) {
+        this.root = root.toPath();
+        this.ignore = ignore;
+    }
+
+    /** Walks the working directory. The stream should be closed once it is no longer needed, which stops the threads
+     *  listing directories ahead of it; they also stop by themselves once every file has been produced.
+     *
+     * @return The path of every file, in ascending order
+     */
+    public Stream<String> files() {
+        Walk walk = new Walk(new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors())));
+        int characteristics = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walk, characteristics), false)
+                .onClose(walk::stop);
+    }
+
+    /** An entry of a directory listing. The path of a subdirectory ends with a slash, so sorting entries by path puts
+     *  them in the order their files are produced in. */
+    private record Entry(String path, boolean directory) {
+    }
+
+    /** Lists the directory at PATH below the working directory, which is "" for the working directory itself and
+     *  otherwise ends with a slash, in ascending order of path. */
+    private List<Entry> list(String path) {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(root.resolve(path))) {
+            for (Path child : children) {
+                String name = path + child.getFileName();
+                if (name.equals(".minigit")) {
+                    continue;
+                }
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                boolean file = attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(child);
+                if (!attrs.isDirectory() && !file || ignore.isIgnored(name, attrs.isDirectory())) {
+                    continue;
+                }
+                entries.add(attrs.isDirectory() ? new Entry(name + "/", true) : new Entry(name, false));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        entries.sort(Comparator.comparing(Entry::path));
+        return entries;
+    }
+
+    /** The depth-first walk behind a stream of files. */
+    private final class Walk implements Iterator<String> {
+        private final ForkJoinPool pool;
+        /** The entries still to be walked in each directory being walked, innermost first */
+        private final Deque<Iterator<Entry>> open = new ArrayDeque<>();
+        /** Listings of subdirectories that were started before the walk reached them */
+        private final Map<String, ForkJoinTask<List<Entry>>> ahead = new HashMap<>();
+        private String next;
+
+        Walk(ForkJoinPool pool) {
+            this.pool = pool;
+            enter(list(""));
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String file = next;
+            advance();
+            return file;
+        }
+
+        /** Stops listing directories ahead of the walk. */
+        void stop() {
+            pool.shutdownNow();
+        }
+
+        /** Starts walking a directory whose listing is ENTRIES, starting to list its subdirectories. */
+        private void enter(List<Entry> entries) {
+            for (Entry entry : entries) {
+                if (entry.directory()) {
+                    ahead.put(entry.path(), pool.submit(() -> list(entry.path())));
+                }
+            }
+            open.push(entries.iterator());
+        }
+
+        /** Moves NEXT on to the next file, or to null once every file has been produced. */
+        private void advance() {
+            while (!open.isEmpty()) {
+                Iterator<Entry> entries = open.peek();
+                if (!entries.hasNext()) {
+                    open.pop();
+                    continue;
+                }
+                Entry entry = entries.next();
+                if (entry.directory()) {
+                    enter(ahead.remove(entry.path()).join());
+                } else {
+                    next = entry.path();
+                    return;
+                }
+            }
+            next = null;
+            stop();
+        }
+    }
+}
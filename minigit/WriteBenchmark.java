@@ -0,0 +1,76 @@
+package minigit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Measures what replacing refs atomically costs, so that the flushes Utils.writeContents and Utils.writeAll make can
+ *  be weighed on a given file system.
+ *
+ *  Usage: java minigit.WriteBenchmark [DIRECTORY [ROUNDS [REFS]]]
+ *
+ *  In a fresh subdirectory of DIRECTORY (by default the current one), each round writes a ref-sized file in four
+ *  ways: in place without flushing it, as MiniGit did before writes were made atomic; through writeContents; and REFS
+ *  files (by default 4) through writeAll, one after another and then as a group commit. The median time of each over
+ *  ROUNDS rounds (by default 200) is printed, in milliseconds, after as many rounds again to warm up.
+ */
+public class WriteBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        File parent = new File(args.length > 0 ? args[0] : ".");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int refs = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        File dir = Files.createTempDirectory(parent.toPath(), "write-benchmark-").toFile();
+        try {
+            File one = new File(dir, "main");
+            Map<File, byte[]> many = new LinkedHashMap<>();
+            for (int i = 0; i < refs; i++) {
+                many.put(new File(dir, "branch" + i), ref(i));
+            }
+
+            report("in place, no flush", time(rounds, i -> Files.write(one.toPath(), ref(i))), 1);
+            report("writeContents", time(rounds, i -> Utils.writeContents(one, ref(i))), 1);
+            report("writeAll, one after another", time(rounds, i -> Utils.writeAll(many, false)), refs);
+            report("writeAll, group commit", time(rounds, i -> Utils.writeAll(many, true)), refs);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /** A write to time, given the number of the round. */
+    private interface Write {
+        void run(int round) throws IOException;
+    }
+
+    /** Returns the times WRITE took in ROUNDS rounds, in nanoseconds, after as many rounds to warm up. */
+    private static long[] time(int rounds, Write write) throws IOException {
+        long[] times = new long[rounds];
+        for (int i = -rounds; i < rounds; i++) {
+            long start = System.nanoTime();
+            write.run(i);
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+        }
+        return times;
+    }
+
+    /** Prints the median of TIMES for writes of FILES files each, and per file. */
+    private static void report(String name, long[] times, int files) {
+        Arrays.sort(times);
+        double median = times[times.length / 2] / 1e6;
+        System.out.printf("%-30s %8.3f ms  %8.3f ms per file%n", name, median, median / files);
+    }
+
+    /** Returns the contents of a ref written in round I, a commit id like those branch files hold. */
+    private static byte[] ref(int i) {
+        return Utils.sha1(String.valueOf(i)).getBytes(StandardCharsets.UTF_8);
+    }
+}